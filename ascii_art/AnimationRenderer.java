@@ -0,0 +1,270 @@
+package ascii_art;
+
+import ascii_stream.FrameSink;
+import image.FrameReader;
+import image.Image;
+import image.ImageUtils;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AnimationRenderer renders the frames of an animation through a pipeline of three stages:
+ * decoding frames, reducing their tiles and matching them to characters, and writing them out.
+ * Decoding and matching run on threads of their own, writing runs on the calling thread, and
+ * stages hand frames over through bounded queues. So frame N + 1 is decoded while frame N is
+ * matched and frame N - 1 written, and no stage gets more than QUEUE_FRAMES frames ahead of
+ * the next one, which bounds the heap whatever the length of the animation.
+ * <p>
+ * A stage that fails ends its queue, so the stages after it finish, and the failure is thrown
+ * once the pipeline has drained. A failed write interrupts the other stages, and render returns
+ * only once they have stopped. A stage that fails or is interrupted never blocks to end its
+ * queue, since nothing may be taking from it any more.
+ */
+final class AnimationRenderer {
+
+    // Frames each queue holds: one being handed over while the next is already waiting.
+    private static final int QUEUE_FRAMES = 2;
+    private static final String NO_FRAMES = "Did not animate, there are no frames.";
+    private static final String RES_EXCEED_BOUND = "Did not animate, a frame is smaller than the resolution.";
+    private static final String REPORT_FORMAT = "Rendered %d frames in %.2f s: %.1f fps sustained, " +
+            "first frame after %.1f ms; per frame %.1f ms decoding, %.1f ms matching, %.1f ms writing%n";
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double NANOS_PER_MILLI = 1e6;
+    // Decoding and matching, writing runs on the calling thread.
+    private static final int STAGE_THREADS = 2;
+    // Marks the end of the frames in a queue.
+    private static final Frame END = new Frame(null, null, 0);
+
+    private final RenderConfig config;
+    private final ImageUtils div;
+    private final int delayMillis;
+    // Each stage sums its own time, read once the stage has finished.
+    private long decodeNanos;
+    private long matchNanos;
+    private long writeNanos;
+    private int frames;
+    private long elapsedNanos;
+    private long firstFrameNanos;
+    private long lastFrameNanos;
+
+    /**
+     * Constructs an AnimationRenderer.
+     *
+     * @param config      The render configuration every frame is matched and written with.
+     * @param div         The image utilities tiles are reduced with.
+     * @param delayMillis How long each frame is shown, or 0 to keep the delays of the animation.
+     */
+    AnimationRenderer(RenderConfig config, ImageUtils div, int delayMillis) {
+        this.config = config;
+        this.div = div;
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Renders every frame of an animation into a sink, and waits until the last one is written.
+     *
+     * @param reader The frames to render.
+     * @param sink   The sink to write the frames to. It is not closed.
+     * @throws IOException  If a frame cannot be decoded or written, or there are no frames.
+     * @throws ExceedBound  If a frame is smaller than the resolution.
+     */
+    void render(FrameReader reader, FrameSink sink) throws IOException, ExceedBound {
+        BlockingQueue<Frame> decoded = new ArrayBlockingQueue<>(QUEUE_FRAMES);
+        BlockingQueue<Frame> matched = new ArrayBlockingQueue<>(QUEUE_FRAMES);
+        ExecutorService stages = VirtualThreads.newExecutor(STAGE_THREADS);
+        long start = System.nanoTime();
+        try {
+            Future<Void> decoding = stages.submit(() -> decode(reader, decoded));
+            Future<Void> matching = stages.submit(() -> match(decoded, matched));
+            write(matched, sink, start);
+            // Matching ends only once decoding has ended, so its failure comes first.
+            matching.get();
+            decoding.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof ExceedBound) {
+                throw (ExceedBound) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            // Stages still waiting on a queue are interrupted when the writing stage failed.
+            stages.shutdownNow();
+            awaitStages(stages);
+            elapsedNanos = System.nanoTime() - start;
+        }
+        if (frames == 0) {
+            throw new IOException(NO_FRAMES);
+        }
+    }
+
+    /**
+     * Describes the last render: the frames written, the sustained frame rate after the first
+     * frame, the latency to the first frame, and the time each stage spent per frame.
+     * Stages overlap, so the frame rate follows the slowest stage rather than their sum.
+     *
+     * @return The report.
+     */
+    String getReport() {
+        double seconds = elapsedNanos / NANOS_PER_SECOND;
+        // The first frame waits for every stage once, later ones only for the slowest.
+        double fps = frames > 1 ? (frames - 1) * NANOS_PER_SECOND / (lastFrameNanos - firstFrameNanos) :
+                frames / seconds;
+        int counted = Math.max(1, frames);
+        return String.format(REPORT_FORMAT, frames, seconds, fps, firstFrameNanos / NANOS_PER_MILLI,
+                decodeNanos / NANOS_PER_MILLI / counted, matchNanos / NANOS_PER_MILLI / counted,
+                writeNanos / NANOS_PER_MILLI / counted);
+    }
+
+    /**
+     * The decoding stage: decodes frames in order into a queue, then ends the queue.
+     *
+     * @param reader The frames to decode.
+     * @param out    The queue of decoded frames.
+     * @return Nothing.
+     * @throws IOException          If a frame cannot be decoded.
+     * @throws InterruptedException If interrupted while waiting for room in the queue.
+     */
+    private Void decode(FrameReader reader, BlockingQueue<Frame> out) throws IOException, InterruptedException {
+        boolean finished = false;
+        try {
+            while (true) {
+                long start = System.nanoTime();
+                Image img = reader.next();
+                decodeNanos += System.nanoTime() - start;
+                if (img == null) {
+                    finished = true;
+                    return null;
+                }
+                out.put(new Frame(img, null, delayMillis > 0 ? delayMillis : reader.getDelayMillis()));
+            }
+        } finally {
+            end(out, finished);
+        }
+    }
+
+    /**
+     * The matching stage: reduces the tiles of each decoded frame and matches them to
+     * characters, until the queue of decoded frames ends, then ends its own queue.
+     *
+     * @param in  The queue of decoded frames.
+     * @param out The queue of matched frames.
+     * @return Nothing.
+     * @throws ExceedBound          If a frame is smaller than the resolution.
+     * @throws InterruptedException If interrupted while waiting on a queue.
+     */
+    private Void match(BlockingQueue<Frame> in, BlockingQueue<Frame> out) throws ExceedBound, InterruptedException {
+        boolean finished = false;
+        try {
+            Frame frame;
+            while ((frame = in.take()) != END) {
+                long start = System.nanoTime();
+                Image img = frame.image;
+                if (config.getResolution() > img.getWidth() || config.getResolution() > img.getHeight()) {
+                    throw new ExceedBound(RES_EXCEED_BOUND);
+                }
+                char[][] art = new AsciiArtAlgorithm(config, img, div).run();
+                matchNanos += System.nanoTime() - start;
+                out.put(new Frame(null, art, frame.delayMillis));
+            }
+            finished = true;
+        } finally {
+            end(out, finished);
+        }
+        return null;
+    }
+
+    /**
+     * Ends a queue. A stage that finished waits for room for the end, as the next stage is still
+     * taking frames. A stage that failed or was interrupted may have no one taking from its queue
+     * any more, so it drops the frames still waiting instead, which always leaves room.
+     *
+     * @param queue    The queue to end.
+     * @param finished Whether the stage went through all of its frames.
+     */
+    private static void end(BlockingQueue<Frame> queue, boolean finished) {
+        if (finished) {
+            try {
+                queue.put(END);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Only this stage adds to the queue, so once it is cleared the end fits.
+        queue.clear();
+        queue.offer(END);
+    }
+
+    /**
+     * Waits for the stages to stop after they were shut down, so none of them still reads the
+     * frames or holds on to them once render returns. Stages that were interrupted stop as soon
+     * as the frame they are working on is done.
+     *
+     * @param stages The executor the stages run on.
+     */
+    private static void awaitStages(ExecutorService stages) {
+        try {
+            stages.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The writing stage: writes matched frames to the sink until their queue ends.
+     *
+     * @param in    The queue of matched frames.
+     * @param sink  The sink.
+     * @param start When the render started, in System.nanoTime.
+     * @throws IOException          If a frame cannot be written.
+     * @throws InterruptedException If interrupted while waiting on the queue.
+     */
+    private void write(BlockingQueue<Frame> in, FrameSink sink, long start)
+            throws IOException, InterruptedException {
+        Frame frame;
+        while ((frame = in.take()) != END) {
+            long begin = System.nanoTime();
+            try (StageTimer timer = PipelineMetrics.start(Stage.OUTPUT)) {
+                sink.frame(frame.art, frame.delayMillis);
+                timer.cells((long) frame.art.length * frame.art[0].length);
+            }
+            long end = System.nanoTime();
+            writeNanos += end - begin;
+            if (frames++ == 0) {
+                firstFrameNanos = end - start;
+            }
+            lastFrameNanos = end - start;
+        }
+    }
+
+    /**
+     * A frame on its way through the pipeline: decoded, then matched.
+     */
+    private static final class Frame {
+        private final Image image;
+        private final char[][] art;
+        private final int delayMillis;
+
+        Frame(Image image, char[][] art, int delayMillis) {
+            this.image = image;
+            this.art = art;
+            this.delayMillis = delayMillis;
+        }
+    }
+}
@@ -3,25 +3,46 @@ package ascii_art;
 import ascii_output.AsciiOutput;
 import ascii_output.ConsoleAsciiOutput;
 import ascii_output.HtmlAsciiOutput;
+import ascii_stream.ColorRowSink;
+import ascii_stream.RowSink;
 import image.Image;
 import image.ImageUtils;
 import image.ImagePad;
+import image.StreamedImage;
+import image.TileStats;
+import image_char_matching.BrightnessIndex;
+import image_char_matching.ShapeIndex;
 import image_char_matching.SubImgCharMatcher;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The AsciiArtAlgorithm class represents an algorithm for generating ASCII art from an image.
+ * It only holds immutable snapshots of the charset and settings, so edits made to a
+ * SubImgCharMatcher after construction never affect a render in progress.
+ * Tiles are matched by brightness, or, when the configuration carries a ShapeIndex, by the
+ * shape of their bright and dark areas among the glyphs of similar brightness. Brightness
+ * matches may diffuse their error into the neighbouring tiles, see ErrorDiffusion, and rows
+ * streamed to a ColorRowSink may carry the mean color of each tile.
  */
 public class AsciiArtAlgorithm {
 
     private final ImageUtils div;
-    private final Image[][] subImages;
-    private final SubImgCharMatcher matcher;
-    private final char[][] output;
+    private final BrightnessIndex charset;
     private final int resolution;
     private final Image img;
+    private final double[][] precomputedBrightness;
+    // The brightness grid computed from the image, kept so that it is only computed once.
+    private double[][] computedBrightness;
+    private final ShapeIndex shapes;
+    private final double glyphAspect;
+    private final boolean dithered;
+    private final boolean colored;
     private static final int DEFAULT_OUTPUT_RESOLUTION = 128;
 
     /**
@@ -32,13 +53,101 @@ public class AsciiArtAlgorithm {
      * @param matcher    The SubImgCharMatcher instance for matching sub-images to characters.
      */
     public AsciiArtAlgorithm(int resolution, Image img, SubImgCharMatcher matcher) {
-        super();
-        this.div = new ImageUtils();
-        this.output = new char[resolution][resolution];
-        this.subImages = div.divideImage(img, resolution);
-        this.matcher = matcher;
-        this.resolution = resolution;
-        this.img = img;
+        this(resolution, img, matcher, new ImageUtils());
+    }
+
+    /**
+     * Constructs an instance of AsciiArtAlgorithm that computes brightness with the given utils.
+     *
+     * @param resolution The resolution of the output ASCII art.
+     * @param img        The input image.
+     * @param matcher    The SubImgCharMatcher instance for matching sub-images to characters.
+     * @param div        The ImageUtils used to compute tile brightness, possibly in parallel.
+     */
+    public AsciiArtAlgorithm(int resolution, Image img, SubImgCharMatcher matcher, ImageUtils div) {
+        this(div, matcher.snapshot(), resolution, img, null);
+    }
+
+    /**
+     * Constructs an instance of AsciiArtAlgorithm over an image streamed from its file.
+     * The file is streamed here, so only the tile brightness grid is kept.
+     *
+     * @param resolution The resolution of the output ASCII art.
+     * @param stream     The input image, read strip by strip.
+     * @param matcher    The SubImgCharMatcher instance for matching sub-images to characters.
+     * @throws IOException If the image file cannot be read.
+     */
+    public AsciiArtAlgorithm(int resolution, StreamedImage stream, SubImgCharMatcher matcher)
+            throws IOException {
+        this(null, matcher.snapshot(), resolution, null, stream.calculateBrightness(resolution));
+    }
+
+    /**
+     * Constructs an instance of AsciiArtAlgorithm over an aspect-correct grid of the image.
+     * The grid has the given number of columns, and its number of rows follows from the
+     * aspect ratio of the image and of the output glyphs. Padding is ignored.
+     *
+     * @param columns     The number of columns of the output ASCII art.
+     * @param glyphAspect The height of an output glyph divided by its width.
+     * @param img         The input image.
+     * @param matcher     The SubImgCharMatcher instance for matching sub-images to characters.
+     * @param div         The ImageUtils used to compute tile brightness, possibly in parallel.
+     */
+    public AsciiArtAlgorithm(int columns, double glyphAspect, Image img, SubImgCharMatcher matcher,
+                             ImageUtils div) {
+        this(div, matcher.snapshot(), columns, img, div.calculateBrightness(img, columns, glyphAspect));
+    }
+
+    /**
+     * Constructs an instance of AsciiArtAlgorithm from a render configuration.
+     *
+     * @param config The render configuration.
+     * @param img    The input image.
+     * @param div    The ImageUtils used to compute tile brightness, possibly in parallel.
+     */
+    public AsciiArtAlgorithm(RenderConfig config, Image img, ImageUtils div) {
+        this(div, config.getCharset(), config.getResolution(), img, null, config.getShapes(),
+                config.getGlyphAspect(), config.isDithered(), config.isColored());
+    }
+
+    /**
+     * Constructs an instance of AsciiArtAlgorithm from a render configuration, over an image
+     * streamed from its file. Streamed images are always tiled with the square grid and
+     * matched by brightness, since their pixels are not kept.
+     *
+     * @param config The render configuration.
+     * @param stream The input image, read strip by strip.
+     * @throws IOException If the image file cannot be read.
+     */
+    public AsciiArtAlgorithm(RenderConfig config, StreamedImage stream) throws IOException {
+        this(null, config.getCharset(), config.getResolution(), null,
+                stream.calculateBrightness(config.getResolution()), null, RenderConfig.SQUARE_GRID,
+                config.isDithered(), false);
+    }
+
+    /**
+     * Constructs an instance of AsciiArtAlgorithm over an already computed brightness grid,
+     * such as one taken from a RenderCache. Tiles are matched by brightness only.
+     *
+     * @param config     The render configuration.
+     * @param brightness The brightness of each tile.
+     */
+    public AsciiArtAlgorithm(RenderConfig config, double[][] brightness) {
+        this(config, brightness, null);
+    }
+
+    /**
+     * Constructs an instance of AsciiArtAlgorithm over an already computed brightness grid,
+     * such as one taken from a RenderCache, that diffuses errors on the pool of the given utils.
+     * Tiles are matched by brightness only.
+     *
+     * @param config     The render configuration.
+     * @param brightness The brightness of each tile.
+     * @param div        The ImageUtils whose pool error diffusion runs on, or null for the common pool.
+     */
+    public AsciiArtAlgorithm(RenderConfig config, double[][] brightness, ImageUtils div) {
+        this(div, config.getCharset(), config.getResolution(), null, brightness, null,
+                config.getGlyphAspect(), config.isDithered(), false);
     }
 
     /**
@@ -51,17 +160,167 @@ public class AsciiArtAlgorithm {
         this(DEFAULT_OUTPUT_RESOLUTION, img, matcher);
     }
 
+    private AsciiArtAlgorithm(ImageUtils div, BrightnessIndex charset, int resolution, Image img,
+                              double[][] precomputedBrightness) {
+        this(div, charset, resolution, img, precomputedBrightness, null, RenderConfig.SQUARE_GRID, false, false);
+    }
+
+    private AsciiArtAlgorithm(ImageUtils div, BrightnessIndex charset, int resolution, Image img,
+                              double[][] precomputedBrightness, ShapeIndex shapes, double glyphAspect,
+                              boolean dithered, boolean colored) {
+        super();
+        this.div = div;
+        this.charset = charset;
+        this.resolution = resolution;
+        this.img = img;
+        this.precomputedBrightness = precomputedBrightness;
+        this.shapes = shapes;
+        this.glyphAspect = glyphAspect;
+        this.dithered = dithered;
+        this.colored = colored;
+    }
+
+    /**
+     * Retrieves the brightness grid the algorithm matches characters to, computing it on first use.
+     *
+     * @return The brightness of each tile.
+     */
+    public double[][] getBrightness() {
+        if (precomputedBrightness != null) {
+            return precomputedBrightness;
+        }
+        if (computedBrightness == null) {
+            computedBrightness = glyphAspect == RenderConfig.SQUARE_GRID ? div.calculateBrightness(img, resolution) :
+                    div.calculateBrightness(img, resolution, glyphAspect);
+        }
+        return computedBrightness;
+    }
+
     /**
      * Runs the ASCII art algorithm.
      *
      * @return The ASCII art represented as a 2D char array.
      */
     public char[][] run() {
-        double[][] brightness = div.calculateBrightness(img, subImages, resolution);
-        for (int i = 0; i < brightness.length; i++) {
-            for (int j = 0; j < brightness[0].length; j++) {
-                output[i][j] = matcher.getCharByImageBrightness(brightness[i][j]);
+        if (shapes != null) {
+            return runShapes();
+        }
+        double[][] brightness = getBrightness();
+        if (dithered) {
+            return dither(brightness);
+        }
+        char[][] output = new char[brightness.length][brightness[0].length];
+        try (StageTimer timer = PipelineMetrics.start(Stage.MATCHING)) {
+            for (int i = 0; i < brightness.length; i++) {
+                for (int j = 0; j < brightness[0].length; j++) {
+                    output[i][j] = charset.lookup(brightness[i][j]);
+                }
+            }
+            timer.cells((long) brightness.length * brightness[0].length);
+        }
+        return output;
+    }
+
+    /**
+     * Runs the ASCII art algorithm, pushing every row to the sink as soon as it is matched.
+     * Brightness matches are written from a single reusable row, so the full char grid is never
+     * built; shape matches and dithered matches are computed whole first, then written. Since
+     * streamed rows are written while they are matched, the matching stage includes writing them.
+     *
+     * @param sink The sink to push the rows to. It is begun here but not closed.
+     * @throws IOException If the sink cannot be written.
+     */
+    public void run(RowSink sink) throws IOException {
+        if (colored && img != null && sink instanceof ColorRowSink) {
+            runColored((ColorRowSink) sink);
+            return;
+        }
+        if (shapes != null || dithered) {
+            char[][] output = run();
+            sink.begin(output.length, output[0].length);
+            for (char[] row : output) {
+                sink.row(row);
+            }
+            return;
+        }
+        double[][] brightness = getBrightness();
+        char[] row = new char[brightness[0].length];
+        sink.begin(brightness.length, row.length);
+        try (StageTimer timer = PipelineMetrics.start(Stage.MATCHING)) {
+            for (double[] tiles : brightness) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = charset.lookup(tiles[j]);
+                }
+                sink.row(row);
+            }
+            timer.cells((long) brightness.length * row.length);
+        }
+    }
+
+    /**
+     * Runs the ASCII art algorithm in color: the brightness and the mean color of every tile are
+     * reduced from the pixels in a single pass, and every row goes to the sink with the color
+     * of each of its tiles.
+     *
+     * @param sink The sink to push the rows to. It is begun here but not closed.
+     * @throws IOException If the sink cannot be written.
+     */
+    private void runColored(ColorRowSink sink) throws IOException {
+        TileStats stats = glyphAspect == RenderConfig.SQUARE_GRID ? div.calculateTileStats(img, resolution, false) :
+                div.calculateTileStats(img, resolution, glyphAspect, false);
+        char[][] matched = shapes != null ? runShapes() : dithered ? dither(stats.getBrightnessGrid()) : null;
+        char[] row = new char[stats.getColumns()];
+        int[] colors = new int[stats.getColumns()];
+        sink.begin(stats.getRows(), stats.getColumns());
+        try (StageTimer timer = PipelineMetrics.start(Stage.MATCHING)) {
+            for (int i = 0; i < stats.getRows(); i++) {
+                for (int j = 0; j < row.length; j++) {
+                    if (matched == null) {
+                        row[j] = charset.lookup(stats.getBrightness(i, j));
+                    }
+                    colors[j] = stats.getRgb(i, j);
+                }
+                sink.row(matched != null ? matched[i] : row, colors);
+            }
+            timer.cells((long) stats.getRows() * row.length);
+        }
+    }
+
+    /**
+     * Matches a brightness grid with error diffusion.
+     *
+     * @param brightness The brightness of each tile.
+     * @return The ASCII art represented as a 2D char array.
+     */
+    private char[][] dither(double[][] brightness) {
+        try (StageTimer timer = PipelineMetrics.start(Stage.MATCHING)) {
+            // Without an ImageUtils, as over a cached or streamed grid, rows share the common pool.
+            ForkJoinPool pool = div != null ? div.getPool() : ForkJoinPool.commonPool();
+            timer.cells((long) brightness.length * brightness[0].length);
+            return ErrorDiffusion.dither(brightness, charset, pool);
+        }
+    }
+
+    /**
+     * Runs the structural match: every tile is matched by its shape among the glyphs of
+     * similar brightness, in parallel over the tiles.
+     *
+     * @return The ASCII art represented as a 2D char array.
+     */
+    private char[][] runShapes() {
+        boolean square = glyphAspect == RenderConfig.SQUARE_GRID;
+        int cols = square ? resolution : ImageUtils.columnsFor(img, resolution);
+        int rows = square ? resolution : ImageUtils.rowsFor(img, cols, glyphAspect);
+        char[][] output = new char[rows][cols];
+        ImageUtils.ShapeAction match = (i, j, brightness, word0, word1, word2, word3) ->
+                output[i][j] = shapes.match(brightness, word0, word1, word2, word3);
+        try (StageTimer timer = PipelineMetrics.start(Stage.MATCHING)) {
+            if (square) {
+                div.forEachTileShape(img, resolution, match);
+            } else {
+                div.forEachTileShape(img, resolution, glyphAspect, match);
             }
+            timer.cells((long) rows * cols);
         }
         return output;
     }
@@ -0,0 +1,262 @@
+package ascii_art;
+
+import ascii_output.AsciiOutput;
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import image.Image;
+import image.ImageDecoder;
+import image.ImagePad;
+import image.ImageUtils;
+import image_char_matching.BrightnessIndex;
+import image_char_matching.SubImgCharMatcher;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BatchRenderer renders every image of a directory (or every file matching a glob) without
+ * any interaction, and ends with a throughput summary and the list of files that failed.
+ * Each file is rendered on its own virtual thread when the runtime has them (Java 21 and up)
+ * and otherwise on a pool of as many platform threads as decodes may run at once. A semaphore
+ * bounds how many images are decoded and reduced at once, which bounds the heap whatever the
+ * number of files.
+ * <p>
+ * Usage: {@code BatchRenderer <directory|glob> <resolution> <charset> <console|html>
+ * [output directory] [max concurrent decodes]}, where the charset is {@code all}, a range such
+ * as {@code 0-9}, or the literal characters to use.
+ */
+public class BatchRenderer {
+
+    private static final String USAGE = "Usage: BatchRenderer <directory|glob> <resolution> <charset> " +
+            "<console|html> [output directory] [max concurrent decodes]";
+    private static final String HTML_OUTPUT_FORMAT = RenderConfig.HTML_OUTPUT_FORMAT;
+    private static final String CONSOLE_OUTPUT_FORMAT = RenderConfig.CONSOLE_OUTPUT_FORMAT;
+    private static final String HTML_SUFFIX = ".html";
+    private static final String OUTPUT_FONT = "Courier New";
+    private static final String ALL_CHARS = "all";
+    private static final char RANGE_SEP = '-';
+    private static final int RANGE_LENGTH = 3;
+    private static final char LEGAL_START_ASCII = 32;
+    private static final char LEGAL_END_ASCII = 126;
+    private static final String GLOB_CHARS = "*?[{";
+    private static final String GLOB_SYNTAX = "glob:";
+    private static final String CURRENT_DIRECTORY = ".";
+    private static final String FILE_HEADER = "== ";
+    private static final String FAILURE_SEPARATOR = ": ";
+    private static final String SUMMARY_FORMAT =
+            "Rendered %d of %d images in %.2f s: %.1f images/s, %.1f Mpixels/s%n";
+    private static final String FAILURE_HEADER = "Failed:";
+    private static final String RES_EXCEED_BOUND = "Image is smaller than the resolution.";
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double PIXELS_PER_MEGAPIXEL = 1e6;
+    private static final int MIN_ARGS = 4;
+
+    private final RenderConfig config;
+    private final Path outputDirectory;
+    private final int maxDecodes;
+    private final Semaphore decodePermits;
+    private final Object consoleLock = new Object();
+    private final AtomicLong renderedImages = new AtomicLong();
+    private final AtomicLong renderedPixels = new AtomicLong();
+    private final Map<Path, String> failures = new ConcurrentSkipListMap<>();
+
+    /**
+     * Constructs a BatchRenderer.
+     *
+     * @param resolution      The resolution of the output ASCII art.
+     * @param charset         The characters to render with.
+     * @param outputFormat    The output format, console or html.
+     * @param outputDirectory The directory html files are written to.
+     * @param maxDecodes      How many images may be decoded and reduced at once.
+     */
+    public BatchRenderer(int resolution, char[] charset, String outputFormat, Path outputDirectory,
+                         int maxDecodes) {
+        BrightnessIndex index = new SubImgCharMatcher(charset).snapshot();
+        this.config = new RenderConfig(index, resolution, RenderConfig.SQUARE_GRID, outputFormat, null,
+                OUTPUT_FONT);
+        this.outputDirectory = outputDirectory;
+        this.maxDecodes = maxDecodes;
+        this.decodePermits = new Semaphore(maxDecodes);
+    }
+
+    /**
+     * Entry point of the batch mode.
+     *
+     * @param args Command-line arguments, see the class documentation.
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length < MIN_ARGS) {
+                throw new IllegalRequest(USAGE);
+            }
+            if (!args[3].equals(CONSOLE_OUTPUT_FORMAT) && !args[3].equals(HTML_OUTPUT_FORMAT)) {
+                throw new IllegalRequest(USAGE);
+            }
+            Path outputDirectory = Paths.get(args.length > MIN_ARGS ? args[MIN_ARGS] : CURRENT_DIRECTORY);
+            int maxDecodes = args.length > MIN_ARGS + 1 ? Integer.parseInt(args[MIN_ARGS + 1]) :
+                    Runtime.getRuntime().availableProcessors();
+            BatchRenderer renderer = new BatchRenderer(Integer.parseInt(args[1]), parseCharset(args[2]),
+                    args[3], outputDirectory, Math.max(1, maxDecodes));
+            renderer.renderAll(listInputs(args[0]));
+        } catch (IllegalRequest | NumberFormatException | IOException | InterruptedException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Renders every file concurrently, waits for all of them and prints the summary.
+     *
+     * @param files The image files to render.
+     * @throws InterruptedException If interrupted while waiting for the renders.
+     */
+    public void renderAll(List<Path> files) throws InterruptedException {
+        long start = System.nanoTime();
+        // Without virtual threads, a file only gets a thread once it can take a decode permit.
+        ExecutorService executor = VirtualThreads.newExecutor(maxDecodes);
+        for (Path file : files) {
+            executor.execute(() -> renderFile(file));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        printSummary(files.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Renders a single file, recording it as a failure if anything goes wrong.
+     *
+     * @param file The image file to render.
+     */
+    private void renderFile(Path file) {
+        try {
+            char[][] art;
+            long pixels;
+            int resolution = config.getResolution();
+            decodePermits.acquire();
+            try {
+                String filename = file.toString();
+                Image img = new ImagePad(filename, ImageDecoder.subsamplingFor(filename, resolution));
+                if (resolution > img.getWidth() || resolution > img.getHeight()) {
+                    throw new ExceedBound(RES_EXCEED_BOUND);
+                }
+                art = new AsciiArtAlgorithm(config, img, new ImageUtils()).run();
+                pixels = ImageDecoder.countPixels(filename);
+            } finally {
+                decodePermits.release();
+            }
+            output(file, art);
+            renderedImages.incrementAndGet();
+            renderedPixels.addAndGet(pixels);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.put(file, e.toString());
+        } catch (Exception e) {
+            failures.put(file, e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    /**
+     * Writes the ASCII art of a file in the output format.
+     *
+     * @param file The source file.
+     * @param art  The ASCII art of the file.
+     */
+    private void output(Path file, char[][] art) {
+        if (config.getOutputFormat().equals(HTML_OUTPUT_FORMAT)) {
+            String name = file.getFileName().toString() + HTML_SUFFIX;
+            AsciiOutput out = new HtmlAsciiOutput(outputDirectory.resolve(name).toString(), OUTPUT_FONT);
+            out.out(art);
+            return;
+        }
+        // Console renders are printed whole, one file at a time.
+        synchronized (consoleLock) {
+            System.out.println(FILE_HEADER + file);
+            new ConsoleAsciiOutput().out(art);
+        }
+    }
+
+    private void printSummary(int total, long elapsedNanos) {
+        double seconds = elapsedNanos / NANOS_PER_SECOND;
+        System.out.printf(SUMMARY_FORMAT, renderedImages.get(), total, seconds,
+                renderedImages.get() / seconds, renderedPixels.get() / PIXELS_PER_MEGAPIXEL / seconds);
+        if (!failures.isEmpty()) {
+            System.out.println(FAILURE_HEADER);
+            failures.forEach((file, message) -> System.out.println(file + FAILURE_SEPARATOR + message));
+        }
+    }
+
+    /**
+     * Parses a charset argument: "all", a range such as "a-z", or literal characters.
+     *
+     * @param spec The charset argument.
+     * @return The characters of the charset.
+     */
+    static char[] parseCharset(String spec) {
+        if (spec.equals(ALL_CHARS)) {
+            return rangeOf(LEGAL_START_ASCII, LEGAL_END_ASCII);
+        }
+        if (spec.length() == RANGE_LENGTH && spec.charAt(1) == RANGE_SEP) {
+            char start = (char) Math.min(spec.charAt(0), spec.charAt(2));
+            char end = (char) Math.max(spec.charAt(0), spec.charAt(2));
+            return rangeOf(start, end);
+        }
+        return spec.toCharArray();
+    }
+
+    private static char[] rangeOf(char start, char end) {
+        char[] chars = new char[end - start + 1];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (start + i);
+        }
+        return chars;
+    }
+
+    /**
+     * Lists the files of a directory, or the files matching a glob such as "photos/*.jpg".
+     *
+     * @param input A directory or a glob.
+     * @return The matching regular files, in name order.
+     * @throws IOException If the directory cannot be listed.
+     */
+    static List<Path> listInputs(String input) throws IOException {
+        Path directory = Paths.get(input);
+        PathMatcher matcher = path -> true;
+        if (!Files.isDirectory(directory)) {
+            int firstGlob = indexOfGlob(input);
+            int lastSeparator = input.lastIndexOf('/', firstGlob);
+            directory = Paths.get(lastSeparator < 0 ? CURRENT_DIRECTORY : input.substring(0, lastSeparator + 1));
+            matcher = FileSystems.getDefault().getPathMatcher(GLOB_SYNTAX + input.substring(lastSeparator + 1));
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path) && matcher.matches(path.getFileName())) {
+                    files.add(path);
+                }
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static int indexOfGlob(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if (GLOB_CHARS.indexOf(input.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return input.length();
+    }
+}
@@ -0,0 +1,154 @@
+package ascii_art;
+
+import image_char_matching.BrightnessIndex;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Matches a brightness grid to characters with Floyd-Steinberg error diffusion: the difference
+ * between the brightness of a tile and of its character is carried into the tiles to its right
+ * and below, so small charsets trade banding for a finer texture.
+ * Every tile depends on the row above up to one column to its right, so rows are pipelined:
+ * workers claim rows in order and each one follows the row above it as soon as that row has
+ * published enough columns. The lowest unfinished row never waits, so any number of workers,
+ * from one up, always makes progress, and the result is the same as the sequential diffusion.
+ */
+final class ErrorDiffusion {
+
+    private static final double RIGHT_WEIGHT = 7.0 / 16;
+    private static final double BELOW_LEFT_WEIGHT = 3.0 / 16;
+    private static final double BELOW_WEIGHT = 5.0 / 16;
+    private static final double BELOW_RIGHT_WEIGHT = 1.0 / 16;
+    // Columns a row diffuses between two publications of its progress.
+    private static final int PUBLISH_COLUMNS = 32;
+    // Progress counters of neighbouring rows sit on different cache lines.
+    private static final int PROGRESS_STRIDE = 16;
+    // Busy waits before a waiting worker starts yielding its core, in case the row above
+    // belongs to a worker that is not running.
+    private static final int SPINS_BEFORE_YIELD = 1 << 10;
+
+    private final double[][] brightness;
+    private final BrightnessIndex charset;
+    private final char[][] output;
+    // errors[i][j + 1] collects the error row i - 1 carries into tile (i, j), the extra row and
+    // columns take the error carried past the edges.
+    private final double[][] errors;
+    private final AtomicIntegerArray progress;
+    private final AtomicInteger nextRow = new AtomicInteger();
+    private final int rows;
+    private final int columns;
+
+    private ErrorDiffusion(double[][] brightness, BrightnessIndex charset) {
+        this.brightness = brightness;
+        this.charset = charset;
+        this.rows = brightness.length;
+        this.columns = brightness[0].length;
+        this.output = new char[rows][columns];
+        this.errors = new double[rows + 1][columns + 2];
+        this.progress = new AtomicIntegerArray(rows * PROGRESS_STRIDE);
+    }
+
+    /**
+     * Matches every tile of a brightness grid to a character, diffusing the error of each match.
+     *
+     * @param brightness The brightness of each tile, left unchanged.
+     * @param charset    The charset snapshot to match tiles with.
+     * @param pool       The pool to pipeline the rows on, or null to run on the calling thread.
+     * @return The matched characters.
+     */
+    static char[][] dither(double[][] brightness, BrightnessIndex charset, ForkJoinPool pool) {
+        ErrorDiffusion diffusion = new ErrorDiffusion(brightness, charset);
+        if (charset.size() == 0) {
+            // Nothing to diffuse towards, every tile gets the empty charset's character.
+            for (int i = 0; i < diffusion.rows; i++) {
+                for (int j = 0; j < diffusion.columns; j++) {
+                    diffusion.output[i][j] = charset.lookup(brightness[i][j]);
+                }
+            }
+        } else if (workers(pool, diffusion.rows) == 1) {
+            diffusion.drain();
+        } else {
+            ForkJoinTask<?>[] workers = new ForkJoinTask<?>[workers(pool, diffusion.rows)];
+            for (int k = 0; k < workers.length; k++) {
+                workers[k] = ForkJoinTask.adapt(diffusion::drain);
+            }
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(workers)));
+        }
+        return diffusion.output;
+    }
+
+    /**
+     * Counts the workers to pipeline the rows over. Waiting workers hold their core, so there
+     * are never more of them than cores.
+     *
+     * @param pool The pool, or null to run on the calling thread.
+     * @param rows The number of rows.
+     * @return The number of workers.
+     */
+    private static int workers(ForkJoinPool pool, int rows) {
+        if (pool == null) {
+            return 1;
+        }
+        return Math.min(Math.min(pool.getParallelism(), Runtime.getRuntime().availableProcessors()), rows);
+    }
+
+    /**
+     * Claims and diffuses rows in order until none is left.
+     */
+    private void drain() {
+        int row;
+        while ((row = nextRow.getAndIncrement()) < rows) {
+            diffuseRow(row);
+        }
+    }
+
+    /**
+     * Diffuses one row, chunk by chunk, waiting before each chunk for the row above to have
+     * diffused every tile the chunk depends on.
+     *
+     * @param row The row.
+     */
+    private void diffuseRow(int row) {
+        double[] in = brightness[row];
+        double[] carried = errors[row];
+        double[] below = errors[row + 1];
+        char[] out = output[row];
+        double right = 0;
+        for (int start = 0; start < columns; start += PUBLISH_COLUMNS) {
+            int end = Math.min(start + PUBLISH_COLUMNS, columns);
+            if (row > 0) {
+                awaitRow(row - 1, Math.min(end + 1, columns));
+            }
+            for (int j = start; j < end; j++) {
+                double value = in[j] + carried[j + 1] + right;
+                int level = charset.level(value);
+                out[j] = charset.charAt(level);
+                double error = value - charset.brightnessAt(level);
+                right = error * RIGHT_WEIGHT;
+                below[j] += error * BELOW_LEFT_WEIGHT;
+                below[j + 1] += error * BELOW_WEIGHT;
+                below[j + 2] += error * BELOW_RIGHT_WEIGHT;
+            }
+            progress.set(row * PROGRESS_STRIDE, end);
+        }
+    }
+
+    /**
+     * Waits for a row to have diffused at least the given number of columns.
+     *
+     * @param row     The row.
+     * @param columns The number of columns.
+     */
+    private void awaitRow(int row, int columns) {
+        for (int spins = 0; progress.get(row * PROGRESS_STRIDE) < columns; spins++) {
+            if (spins < SPINS_BEFORE_YIELD) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+}
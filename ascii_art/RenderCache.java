@@ -0,0 +1,496 @@
+package ascii_art;
+
+import image_char_matching.BrightnessIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A content-addressed cache of render results, shared by every image and render.
+ * Brightness grids are keyed by the hash of the source content and the tile grid; ASCII art
+ * is keyed by the same plus the fingerprint of the charset index, so loading the same file
+ * again, under any name, hits the cache.
+ * The memory tier is a least-recently-used map bounded by an estimate of its size in bytes.
+ * The optional disk tier keeps entries in a directory, is read on a memory miss and promotes
+ * what it finds back into memory. It is bounded by a byte budget of its own and evicts the least
+ * recently used files; the modification time of a file is its last use, so the order survives
+ * restarts. The files already in the directory are counted when the cache is constructed, and
+ * temporary files left by interrupted writes are removed. Processes sharing a directory each
+ * keep to the budget for the files they know of.
+ */
+public class RenderCache {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final String KEY_SEPARATOR = "|";
+    private static final String BRIGHTNESS_KIND = "b";
+    private static final String ART_KIND = "a";
+    // Marks art matched by shape, followed by the fingerprint of the shape index.
+    private static final String SHAPE_MARK = "s";
+    private static final String DITHER_MARK = "d";
+    private static final String DISK_SUFFIX = ".cache";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String STATS_FORMAT = "cache hits %d (disk %d), misses %d, evictions %d, " +
+            "entries %d, bytes %d of %d; disk evictions %d, entries %d, bytes %d of %d";
+    private static final int HEX_RADIX = 16;
+    private static final int NIBBLE_BITS = 4;
+    private static final int NIBBLE_MASK = 0xF;
+    private static final int COPY_BUFFER_BYTES = 1 << 16;
+    // Rough per-entry and per-row costs of the map entry, key and arrays.
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+    private static final long ROW_OVERHEAD_BYTES = 16;
+    // Temporary files older than this were left by a write that never finished.
+    private static final long STALE_TEMP_MILLIS = 60L * 60 * 1000;
+
+    private final long maxBytes;
+    private final Path diskDirectory;
+    private final long maxDiskBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    // The files of the disk tier and their sizes, least recently used first.
+    private final LinkedHashMap<Path, Long> diskFiles = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    /**
+     * A cached value and its estimated size.
+     */
+    private static final class Entry {
+        private final Object value;
+        private final long bytes;
+
+        Entry(Object value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Constructs a RenderCache, counting the files the disk tier already holds and evicting
+     * the least recently used of them down to its budget.
+     *
+     * @param maxBytes      The size budget of the memory tier, in bytes.
+     * @param diskDirectory The directory of the disk tier, or null for memory only.
+     * @param maxDiskBytes  The size budget of the disk tier, in bytes.
+     */
+    public RenderCache(long maxBytes, Path diskDirectory, long maxDiskBytes) {
+        this.maxBytes = maxBytes;
+        this.diskDirectory = diskDirectory;
+        this.maxDiskBytes = maxDiskBytes;
+        scanDisk();
+    }
+
+    /**
+     * Hashes the content of a file.
+     *
+     * @param file The file.
+     * @return The hex SHA-256 of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    public static String hashFile(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Creates a new SHA-256 digest.
+     *
+     * @return The digest.
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Java platform must provide SHA-256
+        }
+    }
+
+    /**
+     * Formats bytes as lower case hex.
+     *
+     * @param bytes The bytes.
+     * @return The hex string.
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> NIBBLE_BITS) & NIBBLE_MASK, HEX_RADIX))
+                    .append(Character.forDigit(b & NIBBLE_MASK, HEX_RADIX));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Builds the key of a brightness grid.
+     *
+     * @param contentKey The hash of the source content, with anything else that shapes the pixels.
+     * @param config     The render configuration, of which only the tile grid is used.
+     * @return The key.
+     */
+    public static String brightnessKey(String contentKey, RenderConfig config) {
+        return String.join(KEY_SEPARATOR, BRIGHTNESS_KIND, contentKey,
+                String.valueOf(config.getResolution()), String.valueOf(config.getGlyphAspect()));
+    }
+
+    /**
+     * Builds the key of a piece of ASCII art.
+     *
+     * @param contentKey The hash of the source content, with anything else that shapes the pixels.
+     * @param config     The render configuration, of which the tile grid, charset, shapes and
+     *                   dithering are used.
+     * @return The key.
+     */
+    public static String artKey(String contentKey, RenderConfig config) {
+        String charset = Long.toHexString(config.getCharset().fingerprint());
+        if (config.getShapes() != null) {
+            charset += SHAPE_MARK + Long.toHexString(config.getShapes().fingerprint());
+        } else if (config.isDithered()) {
+            charset += DITHER_MARK;
+        }
+        return String.join(KEY_SEPARATOR, ART_KIND, contentKey, String.valueOf(config.getResolution()),
+                String.valueOf(config.getGlyphAspect()), charset);
+    }
+
+    /**
+     * Looks up a brightness grid.
+     *
+     * @param key The key, from brightnessKey.
+     * @return The cached grid, or null on a miss.
+     */
+    public double[][] getBrightness(String key) {
+        return (double[][]) get(key);
+    }
+
+    /**
+     * Caches a brightness grid. The grid must not be modified afterwards.
+     *
+     * @param key        The key, from brightnessKey.
+     * @param brightness The grid.
+     */
+    public void putBrightness(String key, double[][] brightness) {
+        put(key, brightness, sizeOf(brightness.length, brightness[0].length, Double.BYTES), true);
+    }
+
+    /**
+     * Looks up a piece of ASCII art.
+     *
+     * @param key The key, from artKey.
+     * @return The cached art, or null on a miss.
+     */
+    public char[][] getArt(String key) {
+        return (char[][]) get(key);
+    }
+
+    /**
+     * Caches a piece of ASCII art. The art must not be modified afterwards.
+     *
+     * @param key The key, from artKey.
+     * @param art The art.
+     */
+    public void putArt(String key, char[][] art) {
+        put(key, art, sizeOf(art.length, art[0].length, Character.BYTES), true);
+    }
+
+    /**
+     * Describes the hit, miss and eviction counts, and the memory and disk use of the cache.
+     *
+     * @return The statistics, on one line.
+     */
+    public String getStats() {
+        int diskEntries;
+        long diskUsed;
+        synchronized (diskFiles) {
+            diskEntries = diskFiles.size();
+            diskUsed = diskBytes;
+        }
+        synchronized (entries) {
+            return String.format(STATS_FORMAT, hits.get(), diskHits.get(), misses.get(), evictions.get(),
+                    entries.size(), bytes, maxBytes, diskEvictions.get(), diskEntries, diskUsed, maxDiskBytes);
+        }
+    }
+
+    private Object get(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.value;
+        }
+        Object value = readDisk(key);
+        if (value == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        diskHits.incrementAndGet();
+        if (value instanceof double[][]) {
+            double[][] grid = (double[][]) value;
+            put(key, value, sizeOf(grid.length, grid[0].length, Double.BYTES), false);
+        } else {
+            char[][] art = (char[][]) value;
+            put(key, value, sizeOf(art.length, art[0].length, Character.BYTES), false);
+        }
+        return value;
+    }
+
+    private void put(String key, Object value, long size, boolean writeDisk) {
+        if (size <= maxBytes) {
+            synchronized (entries) {
+                Entry previous = entries.put(key, new Entry(value, size));
+                bytes += size - (previous == null ? 0 : previous.bytes);
+                Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+                while (bytes > maxBytes && eldest.hasNext()) {
+                    Map.Entry<String, Entry> evicted = eldest.next();
+                    if (evicted.getKey().equals(key)) {
+                        continue;
+                    }
+                    bytes -= evicted.getValue().bytes;
+                    eldest.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+        if (writeDisk) {
+            writeDisk(key, value);
+        }
+    }
+
+    private static long sizeOf(int rows, int cols, int cellBytes) {
+        return ENTRY_OVERHEAD_BYTES + rows * (ROW_OVERHEAD_BYTES + (long) cols * cellBytes);
+    }
+
+    private Path diskFile(String key) {
+        byte[] hash = newDigest().digest(key.getBytes(StandardCharsets.UTF_8));
+        return diskDirectory.resolve(toHex(hash) + DISK_SUFFIX);
+    }
+
+    /**
+     * Reads an entry from the disk tier. The file starts with its full key, so a hash
+     * collision reads as a miss.
+     */
+    private Object readDisk(String key) {
+        if (diskDirectory == null) {
+            return null;
+        }
+        Path file = diskFile(key);
+        if (!Files.isRegularFile(file)) {
+            forgetDisk(file);
+            return null;
+        }
+        touchDisk(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (!in.readUTF().equals(key)) {
+                return null;
+            }
+            int rows = in.readInt();
+            int cols = in.readInt();
+            if (key.startsWith(BRIGHTNESS_KIND)) {
+                double[][] grid = new double[rows][cols];
+                for (double[] row : grid) {
+                    for (int j = 0; j < cols; j++) {
+                        row[j] = in.readDouble();
+                    }
+                }
+                return grid;
+            }
+            char[][] art = new char[rows][cols];
+            for (char[] row : art) {
+                for (int j = 0; j < cols; j++) {
+                    row[j] = in.readChar();
+                }
+            }
+            return art;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes an entry to the disk tier through a temporary file. Failures are ignored,
+     * the disk tier is only an optimization.
+     */
+    private void writeDisk(String key, Object value) {
+        if (diskDirectory == null) {
+            return;
+        }
+        Path temp = null;
+        try {
+            Files.createDirectories(diskDirectory);
+            temp = Files.createTempFile(diskDirectory, null, TEMP_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeUTF(key);
+                if (value instanceof double[][]) {
+                    double[][] grid = (double[][]) value;
+                    out.writeInt(grid.length);
+                    out.writeInt(grid[0].length);
+                    for (double[] row : grid) {
+                        for (double cell : row) {
+                            out.writeDouble(cell);
+                        }
+                    }
+                } else {
+                    char[][] art = (char[][]) value;
+                    out.writeInt(art.length);
+                    out.writeInt(art[0].length);
+                    for (char[] row : art) {
+                        for (char cell : row) {
+                            out.writeChar(cell);
+                        }
+                    }
+                }
+            }
+            long size = Files.size(temp);
+            if (size > maxDiskBytes) {
+                Files.delete(temp);
+                return;
+            }
+            Path file = diskFile(key);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            addDisk(file, size);
+        } catch (IOException | RuntimeException e) {
+            try {
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException ignored) {
+                // Nothing more to do, the temporary file is harmless.
+            }
+        }
+    }
+
+    /**
+     * Counts the files already in the disk tier, least recently used first, and evicts them
+     * down to the budget. Temporary files left by writes that never finished are removed.
+     * Failures are ignored, the disk tier is only an optimization.
+     */
+    private void scanDisk() {
+        if (diskDirectory == null || !Files.isDirectory(diskDirectory)) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attributes = new LinkedHashMap<>();
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(diskDirectory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                if (!attrs.isRegularFile()) {
+                    continue;
+                }
+                if (name.endsWith(DISK_SUFFIX)) {
+                    files.add(file);
+                    attributes.put(file, attrs);
+                } else if (name.endsWith(TEMP_SUFFIX) && attrs.lastModifiedTime().toMillis() < staleBefore) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        files.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+        synchronized (diskFiles) {
+            for (Path file : files) {
+                diskFiles.put(file, attributes.get(file).size());
+                diskBytes += attributes.get(file).size();
+            }
+            evictDisk(null);
+        }
+    }
+
+    /**
+     * Records a file just written to the disk tier, and evicts others down to the budget.
+     */
+    private void addDisk(Path file, long size) {
+        synchronized (diskFiles) {
+            Long previous = diskFiles.put(file, size);
+            diskBytes += size - (previous == null ? 0 : previous);
+            evictDisk(file);
+        }
+    }
+
+    /**
+     * Marks a file of the disk tier as just used, in memory and in its modification time.
+     */
+    private void touchDisk(Path file) {
+        synchronized (diskFiles) {
+            if (diskFiles.get(file) == null) {
+                // Written by another process sharing the directory.
+                try {
+                    addDisk(file, Files.size(file));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // The order is only lost across restarts.
+        }
+    }
+
+    private void forgetDisk(Path file) {
+        synchronized (diskFiles) {
+            Long size = diskFiles.remove(file);
+            if (size != null) {
+                diskBytes -= size;
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used files of the disk tier until it fits its budget.
+     * Must be called while holding diskFiles.
+     *
+     * @param keep A file never to evict, or null.
+     */
+    private void evictDisk(Path keep) {
+        Iterator<Map.Entry<Path, Long>> eldest = diskFiles.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+            Map.Entry<Path, Long> evicted = eldest.next();
+            if (evicted.getKey().equals(keep)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(evicted.getKey());
+            } catch (IOException e) {
+                // Still counted as evicted; the scan on the next start counts it again.
+            }
+            diskBytes -= evicted.getValue();
+            eldest.remove();
+            diskEvictions.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package ascii_art;
+
+import ascii_stream.AnsiRowSink;
+import ascii_stream.ColorHtmlRowSink;
+import ascii_stream.CompactHtmlRowSink;
+import ascii_stream.ConsoleFrameSink;
+import ascii_stream.ConsoleRowSink;
+import ascii_stream.FrameSink;
+import ascii_stream.HtmlFrameSink;
+import ascii_stream.HtmlRowSink;
+import ascii_stream.RowSink;
+import image_char_matching.BrightnessIndex;
+import image_char_matching.ShapeIndex;
+
+import java.io.IOException;
+
+/**
+ * An immutable snapshot of everything a render needs besides the image: the charset index,
+ * the resolution, the tile grid and the output target. Since nothing in it can change, any
+ * number of renders can share or hold configurations without locks.
+ */
+public final class RenderConfig {
+
+    /** The glyph aspect that selects the square resolution x resolution grid. */
+    public static final double SQUARE_GRID = 0;
+    /** The output format that writes an html file. */
+    public static final String HTML_OUTPUT_FORMAT = "html";
+    /** The output format that writes a compact html file. */
+    public static final String COMPACT_HTML_OUTPUT_FORMAT = "compact";
+    /** The output format that writes a compact, gzip-compressed html file. */
+    public static final String GZIP_HTML_OUTPUT_FORMAT = "gzip";
+    /** The output format that prints to the console. */
+    public static final String CONSOLE_OUTPUT_FORMAT = "console";
+
+    private final BrightnessIndex charset;
+    private final ShapeIndex shapes;
+    private final boolean dithered;
+    private final boolean colored;
+    private final int resolution;
+    private final double glyphAspect;
+    private final String outputFormat;
+    private final String outputName;
+    private final String outputFont;
+
+    /**
+     * Constructs a RenderConfig.
+     *
+     * @param charset      The charset snapshot to match tiles with.
+     * @param resolution   The resolution, or number of columns for an aspect-correct grid.
+     * @param glyphAspect  The glyph aspect of an aspect-correct grid, or SQUARE_GRID.
+     * @param outputFormat The output format: console, html, compact or gzip.
+     * @param outputName   The file an html output is written to.
+     * @param outputFont   The font an html output is displayed with.
+     */
+    public RenderConfig(BrightnessIndex charset, int resolution, double glyphAspect, String outputFormat,
+                        String outputName, String outputFont) {
+        this(charset, null, resolution, glyphAspect, outputFormat, outputName, outputFont);
+    }
+
+    /**
+     * Constructs a RenderConfig that matches tiles by shape.
+     *
+     * @param charset      The charset snapshot to match tiles with by brightness.
+     * @param shapes       The charset snapshot to match tiles with by shape, or null to match
+     *                     by brightness only.
+     * @param resolution   The resolution, or number of columns for an aspect-correct grid.
+     * @param glyphAspect  The glyph aspect of an aspect-correct grid, or SQUARE_GRID.
+     * @param outputFormat The output format: console, html, compact or gzip.
+     * @param outputName   The file an html output is written to.
+     * @param outputFont   The font an html output is displayed with.
+     */
+    public RenderConfig(BrightnessIndex charset, ShapeIndex shapes, int resolution, double glyphAspect,
+                        String outputFormat, String outputName, String outputFont) {
+        this(charset, shapes, false, resolution, glyphAspect, outputFormat, outputName, outputFont);
+    }
+
+    /**
+     * Constructs a RenderConfig that may diffuse the error of brightness matches.
+     *
+     * @param charset      The charset snapshot to match tiles with by brightness.
+     * @param shapes       The charset snapshot to match tiles with by shape, or null to match
+     *                     by brightness only.
+     * @param dithered     Whether brightness matches diffuse their error into neighbouring tiles.
+     *                     Shape matches never do.
+     * @param resolution   The resolution, or number of columns for an aspect-correct grid.
+     * @param glyphAspect  The glyph aspect of an aspect-correct grid, or SQUARE_GRID.
+     * @param outputFormat The output format: console, html, compact or gzip.
+     * @param outputName   The file an html output is written to, a gzip output adds GZIP_SUFFIX.
+     * @param outputFont   The font an html output is displayed with.
+     */
+    public RenderConfig(BrightnessIndex charset, ShapeIndex shapes, boolean dithered, int resolution,
+                        double glyphAspect, String outputFormat, String outputName, String outputFont) {
+        this(charset, shapes, dithered, false, resolution, glyphAspect, outputFormat, outputName, outputFont);
+    }
+
+    /**
+     * Constructs a RenderConfig that may show each character in the mean color of its tile.
+     *
+     * @param charset      The charset snapshot to match tiles with by brightness.
+     * @param shapes       The charset snapshot to match tiles with by shape, or null to match
+     *                     by brightness only.
+     * @param dithered     Whether brightness matches diffuse their error into neighbouring tiles.
+     *                     Shape matches never do.
+     * @param colored      Whether characters are shown in the mean color of their tile, with ANSI
+     *                     escapes on the console and css classes in html. Needs the image pixels.
+     * @param resolution   The resolution, or number of columns for an aspect-correct grid.
+     * @param glyphAspect  The glyph aspect of an aspect-correct grid, or SQUARE_GRID.
+     * @param outputFormat The output format: console, html, compact or gzip.
+     * @param outputName   The file an html output is written to, a gzip output adds GZIP_SUFFIX.
+     * @param outputFont   The font an html output is displayed with.
+     */
+    public RenderConfig(BrightnessIndex charset, ShapeIndex shapes, boolean dithered, boolean colored,
+                        int resolution, double glyphAspect, String outputFormat, String outputName,
+                        String outputFont) {
+        this.charset = charset;
+        this.shapes = shapes;
+        this.dithered = dithered;
+        this.colored = colored;
+        this.resolution = resolution;
+        this.glyphAspect = glyphAspect;
+        this.outputFormat = outputFormat;
+        this.outputName = outputName;
+        this.outputFont = outputFont;
+    }
+
+    /**
+     * Retrieves the charset snapshot.
+     *
+     * @return The charset snapshot.
+     */
+    public BrightnessIndex getCharset() {
+        return charset;
+    }
+
+    /**
+     * Retrieves the shape snapshot.
+     *
+     * @return The shape snapshot, or null when tiles are matched by brightness only.
+     */
+    public ShapeIndex getShapes() {
+        return shapes;
+    }
+
+    /**
+     * Checks whether brightness matches diffuse their error into neighbouring tiles.
+     *
+     * @return true for error diffusion, false for plain nearest-brightness matching.
+     */
+    public boolean isDithered() {
+        return dithered;
+    }
+
+    /**
+     * Checks whether characters are shown in the mean color of their tile.
+     *
+     * @return true for colored output, false for plain characters.
+     */
+    public boolean isColored() {
+        return colored;
+    }
+
+    /**
+     * Retrieves the resolution.
+     *
+     * @return The resolution, or number of columns for an aspect-correct grid.
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Retrieves the glyph aspect of the tile grid.
+     *
+     * @return The glyph aspect, or SQUARE_GRID for the square grid.
+     */
+    public double getGlyphAspect() {
+        return glyphAspect;
+    }
+
+    /**
+     * Checks whether the configuration asks for the square grid.
+     *
+     * @return true for the square grid, false for an aspect-correct grid.
+     */
+    public boolean isSquareGrid() {
+        return glyphAspect == SQUARE_GRID;
+    }
+
+    /**
+     * Retrieves the output format.
+     *
+     * @return The output format: console, html, compact or gzip.
+     */
+    public String getOutputFormat() {
+        return outputFormat;
+    }
+
+    /**
+     * Creates a sink that streams rows to the output the configuration targets. Colored html is
+     * always compact.
+     *
+     * @return A new sink, a ColorRowSink for colored output, to be closed once every row is written.
+     * @throws IOException If the output file cannot be opened.
+     */
+    public RowSink createSink() throws IOException {
+        if (colored) {
+            if (!isHtml()) {
+                return new AnsiRowSink();
+            }
+            return new ColorHtmlRowSink(outputFormat.equals(GZIP_HTML_OUTPUT_FORMAT) ?
+                    outputName + HtmlRowSink.GZIP_SUFFIX : outputName, outputFont);
+        }
+        if (outputFormat.equals(COMPACT_HTML_OUTPUT_FORMAT)) {
+            return new CompactHtmlRowSink(outputName, outputFont);
+        }
+        if (outputFormat.equals(GZIP_HTML_OUTPUT_FORMAT)) {
+            return new CompactHtmlRowSink(outputName + HtmlRowSink.GZIP_SUFFIX, outputFont);
+        }
+        if (outputFormat.equals(HTML_OUTPUT_FORMAT)) {
+            return new HtmlRowSink(outputName, outputFont);
+        }
+        return new ConsoleRowSink();
+    }
+
+    /**
+     * Creates a sink that writes the frames of an animation to the output the configuration
+     * targets: played back on the console, or as a single html page that plays them, which is
+     * always compact and, for gzip, compressed. Frames are never colored.
+     *
+     * @return A new sink, to be closed once every frame is written.
+     * @throws IOException If the output file cannot be opened.
+     */
+    public FrameSink createFrameSink() throws IOException {
+        if (!isHtml()) {
+            return new ConsoleFrameSink();
+        }
+        return new HtmlFrameSink(outputFormat.equals(GZIP_HTML_OUTPUT_FORMAT) ?
+                outputName + HtmlRowSink.GZIP_SUFFIX : outputName, outputFont);
+    }
+
+    /**
+     * Checks whether the output format writes an html file.
+     *
+     * @return true for html, compact and gzip, false for console.
+     */
+    public boolean isHtml() {
+        return outputFormat.equals(HTML_OUTPUT_FORMAT) || outputFormat.equals(COMPACT_HTML_OUTPUT_FORMAT) ||
+                outputFormat.equals(GZIP_HTML_OUTPUT_FORMAT);
+    }
+}
@@ -0,0 +1,409 @@
+package ascii_art;
+
+import ascii_stream.HtmlRowSink;
+import ascii_stream.RowSink;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import image.Image;
+import image.ImageDecoder;
+import image.ImagePad;
+import image.ImageUtils;
+import image_char_matching.BrightnessIndex;
+import image_char_matching.SubImgCharMatcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RenderServer serves ASCII art over HTTP on the loopback interface, so callers pay JVM and
+ * font startup once instead of once per image.
+ * <p>
+ * {@code GET /render?path=<file>} renders a local file and {@code POST /render} renders the
+ * uploaded image body. Both take {@code res} (default 128), {@code chars} (as in the batch mode,
+ * default 0-9) and {@code format} ({@code console} for plain text, or {@code html}).
+ * {@code GET /stats} reports request and render counters, throughput and latency percentiles.
+ * <p>
+ * Requests are handled on virtual threads when the runtime has them, and on a bounded pool of
+ * platform threads otherwise. Identical requests that arrive while one of them is being
+ * computed share that single computation; requests are identical when they name the same
+ * content (by SHA-256) with the same parameters. Results are also kept in a RenderCache, with
+ * a disk tier when -Dascii_art.renderCacheDir is set. Different requests are not coalesced, so
+ * a semaphore bounds how many images are decoded and reduced at once, as in BatchRenderer,
+ * which bounds the heap however many large uploads arrive together.
+ * <p>
+ * Usage: {@code java ascii_art.RenderServer [port] [max concurrent decodes]}.
+ */
+public class RenderServer {
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_RESOLUTION = 128;
+    private static final String DEFAULT_CHARS = "0-9";
+    private static final String RENDER_PATH = "/render";
+    private static final String STATS_PATH = "/stats";
+    private static final String POST = "POST";
+    private static final String PARAM_PATH = "path";
+    private static final String PARAM_RES = "res";
+    private static final String PARAM_CHARS = "chars";
+    private static final String PARAM_FORMAT = "format";
+    private static final String PARAM_SEPARATOR = "&";
+    private static final String VALUE_SEPARATOR = "=";
+    private static final String KEY_SEPARATOR = "|";
+    private static final String SUBSAMPLING_SEPARATOR = "@";
+    private static final String RENDER_CACHE_DIR_PROPERTY = "ascii_art.renderCacheDir";
+    private static final long RENDER_CACHE_BYTES = 256L << 20;
+    private static final long RENDER_CACHE_DISK_BYTES = 1L << 30;
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String TEXT_TYPE = "text/plain; charset=utf-8";
+    private static final String HTML_TYPE = "text/html; charset=utf-8";
+    private static final String UPLOAD_PREFIX = "ascii_art_upload";
+    private static final String MISSING_IMAGE = "Missing image: give a path parameter or a POST body.";
+    private static final String BAD_FORMAT = "Unknown format.";
+    private static final String BAD_RESOLUTION = "Resolution must be positive and at most the image width.";
+    private static final String EMPTY_CHARS_SET = "Charset is empty.";
+    private static final String HTML_FONT = "Courier New";
+    private static final String STATS_FORMAT = "requests %d%nrenders %d%ncoalesced %d%nfailures %d%n" +
+            "uptime_s %.1f%nrequests_per_s %.2f%nrenders_per_s %.2f%n" +
+            "latency_ms_p50 %.2f%nlatency_ms_p90 %.2f%nlatency_ms_p99 %.2f%nlatency_ms_max %.2f%n%s%n";
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_SERVER_ERROR = 500;
+    private static final int LATENCY_WINDOW = 4096;
+    // Charset indexes kept for the most recently used chars parameters.
+    private static final int MAX_CHARSETS = 64;
+    // Without virtual threads, requests beyond this many per core wait for a handler thread.
+    private static final int PLATFORM_HANDLERS_PER_CORE = 4;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double P50 = 0.5;
+    private static final double P90 = 0.9;
+    private static final double P99 = 0.99;
+
+    private final HttpServer server;
+    private final RenderCache renderCache;
+    private final Semaphore decodePermits;
+    private final ImageUtils imageUtils = new ImageUtils();
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    // The charset index of each recent chars parameter, least recently used first.
+    private final LinkedHashMap<String, BrightnessIndex> charsets = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong renders = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    // The latest render latencies, as a ring buffer.
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private long latencyCount;
+
+    /**
+     * Constructs a RenderServer listening on the loopback interface.
+     *
+     * @param port        The port to listen on.
+     * @param renderCache The cache of render results.
+     * @param maxDecodes  How many images may be decoded and reduced at once.
+     * @throws IOException If the port cannot be bound.
+     */
+    public RenderServer(int port, RenderCache renderCache, int maxDecodes) throws IOException {
+        this.renderCache = renderCache;
+        this.decodePermits = new Semaphore(maxDecodes);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(RENDER_PATH, this::handleRender);
+        server.createContext(STATS_PATH, this::handleStats);
+        server.setExecutor(VirtualThreads.newExecutor(
+                PLATFORM_HANDLERS_PER_CORE * Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Entry point of the server mode.
+     *
+     * @param args An optional port, 8080 by default, and an optional number of concurrent
+     *             decodes, the number of processors by default.
+     * @throws IOException If the port cannot be bound.
+     */
+    public static void main(String[] args) throws IOException {
+        String cacheDirectory = System.getProperty(RENDER_CACHE_DIR_PROPERTY);
+        RenderCache cache = new RenderCache(RENDER_CACHE_BYTES,
+                cacheDirectory == null ? null : Paths.get(cacheDirectory), RENDER_CACHE_DISK_BYTES);
+        int maxDecodes = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        new RenderServer(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT, cache,
+                Math.max(1, maxDecodes)).start();
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops serving requests.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handleRender(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        long start = System.nanoTime();
+        Path upload = null;
+        try {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            int resolution = Integer.parseInt(params.getOrDefault(PARAM_RES, String.valueOf(DEFAULT_RESOLUTION)));
+            String chars = params.getOrDefault(PARAM_CHARS, DEFAULT_CHARS);
+            String format = params.getOrDefault(PARAM_FORMAT, RenderConfig.CONSOLE_OUTPUT_FORMAT);
+            if (!format.equals(RenderConfig.CONSOLE_OUTPUT_FORMAT) && !format.equals(RenderConfig.HTML_OUTPUT_FORMAT)) {
+                throw new IllegalRequest(BAD_FORMAT);
+            }
+            String contentKey;
+            Path image;
+            if (exchange.getRequestMethod().equals(POST)) {
+                upload = Files.createTempFile(UPLOAD_PREFIX, null);
+                contentKey = saveUpload(exchange.getRequestBody(), upload);
+                image = upload;
+            } else if (params.containsKey(PARAM_PATH)) {
+                image = Paths.get(params.get(PARAM_PATH));
+                contentKey = RenderCache.hashFile(image);
+            } else {
+                throw new IllegalRequest(MISSING_IMAGE);
+            }
+            String key = String.join(KEY_SEPARATOR, contentKey, String.valueOf(resolution), chars, format);
+            byte[] body = coalesce(key, () -> render(image, contentKey, resolution, chars, format));
+            recordLatency(System.nanoTime() - start);
+            send(exchange, HTTP_OK, format.equals(RenderConfig.HTML_OUTPUT_FORMAT) ? HTML_TYPE : TEXT_TYPE, body);
+        } catch (IllegalRequest | ExceedBound | NumberFormatException e) {
+            failures.incrementAndGet();
+            send(exchange, HTTP_BAD_REQUEST, TEXT_TYPE, String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            send(exchange, HTTP_SERVER_ERROR, TEXT_TYPE, String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        } finally {
+            if (upload != null) {
+                Files.deleteIfExists(upload);
+            }
+        }
+    }
+
+    /**
+     * A render that may fail the way a request can.
+     */
+    @FunctionalInterface
+    private interface Render {
+        byte[] run() throws IOException, IllegalRequest, ExceedBound;
+    }
+
+    /**
+     * Runs the render unless an identical one is already running, in which case its result is
+     * shared. The key is forgotten once the render completes, so later requests render again.
+     */
+    private byte[] coalesce(String key, Render render) throws IOException, IllegalRequest, ExceedBound {
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, mine);
+        if (running == null) {
+            try {
+                renders.incrementAndGet();
+                mine.complete(render.run());
+            } catch (IOException | IllegalRequest | ExceedBound | RuntimeException e) {
+                mine.completeExceptionally(e);
+            } finally {
+                inFlight.remove(key, mine);
+            }
+            running = mine;
+        } else {
+            coalesced.incrementAndGet();
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof IllegalRequest) {
+                throw (IllegalRequest) cause;
+            } else if (cause instanceof ExceedBound) {
+                throw (ExceedBound) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private byte[] render(Path file, String contentKey, int resolution, String chars, String format)
+            throws IOException, IllegalRequest, ExceedBound {
+        BrightnessIndex charset = charset(chars);
+        if (charset.size() == 0) {
+            throw new IllegalRequest(EMPTY_CHARS_SET);
+        }
+        String filename = file.toString();
+        if (resolution < 1) {
+            throw new ExceedBound(BAD_RESOLUTION);
+        }
+        int subsampling = ImageDecoder.subsamplingFor(filename, resolution);
+        RenderConfig config = new RenderConfig(charset, resolution, RenderConfig.SQUARE_GRID, format,
+                null, null);
+        String sampledKey = contentKey + SUBSAMPLING_SEPARATOR + subsampling;
+        char[][] art = renderCache.getArt(RenderCache.artKey(sampledKey, config));
+        if (art == null) {
+            double[][] brightness = renderCache.getBrightness(RenderCache.brightnessKey(sampledKey, config));
+            if (brightness == null) {
+                brightness = decode(filename, subsampling, resolution);
+                renderCache.putBrightness(RenderCache.brightnessKey(sampledKey, config), brightness);
+            }
+            art = new AsciiArtAlgorithm(config, brightness).run();
+            renderCache.putArt(RenderCache.artKey(sampledKey, config), art);
+        }
+        return format.equals(RenderConfig.HTML_OUTPUT_FORMAT) ? toHtml(art) : toText(art);
+    }
+
+    /**
+     * Decodes an image and reduces it to tile brightness, once a decode permit is free.
+     */
+    private double[][] decode(String filename, int subsampling, int resolution) throws IOException, ExceedBound {
+        try {
+            decodePermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        try {
+            Image img = new ImagePad(filename, subsampling);
+            if (resolution > img.getWidth() || resolution > img.getHeight()) {
+                throw new ExceedBound(BAD_RESOLUTION);
+            }
+            return imageUtils.calculateBrightness(img, resolution);
+        } finally {
+            decodePermits.release();
+        }
+    }
+
+    /**
+     * Finds the charset index of a chars parameter, building it on a miss. Only the most
+     * recently used MAX_CHARSETS indexes are kept, so clients cannot grow the map at will.
+     */
+    private BrightnessIndex charset(String chars) {
+        synchronized (charsets) {
+            BrightnessIndex charset = charsets.get(chars);
+            if (charset != null) {
+                return charset;
+            }
+        }
+        // Built outside the lock; a charset built twice at once is merely wasted work.
+        BrightnessIndex charset = new SubImgCharMatcher(BatchRenderer.parseCharset(chars)).snapshot();
+        synchronized (charsets) {
+            charsets.put(chars, charset);
+            Iterator<BrightnessIndex> eldest = charsets.values().iterator();
+            if (charsets.size() > MAX_CHARSETS) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return charset;
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        long[] window;
+        synchronized (latencies) {
+            window = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_WINDOW));
+        }
+        Arrays.sort(window);
+        double seconds = (System.nanoTime() - startNanos) / NANOS_PER_SECOND;
+        String stats = String.format(STATS_FORMAT, requests.get(), renders.get(), coalesced.get(),
+                failures.get(), seconds, requests.get() / seconds, renders.get() / seconds,
+                percentile(window, P50), percentile(window, P90), percentile(window, P99),
+                percentile(window, 1), renderCache.getStats());
+        send(exchange, HTTP_OK, TEXT_TYPE, stats.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[(int) (latencyCount++ % LATENCY_WINDOW)] = nanos;
+        }
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, rank)] / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Copies an uploaded body to a file, hashing it on the way.
+     *
+     * @return The hex SHA-256 of the body.
+     */
+    private static String saveUpload(InputStream body, Path file) throws IOException {
+        MessageDigest digest = RenderCache.newDigest();
+        try (InputStream in = new DigestInputStream(body, digest)) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return RenderCache.toHex(digest.digest());
+    }
+
+    private static byte[] toText(char[][] art) {
+        StringBuilder text = new StringBuilder();
+        for (char[] row : art) {
+            text.append(row).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toHtml(char[][] art) throws IOException {
+        ByteArrayOutputStream html = new ByteArrayOutputStream();
+        try (RowSink sink = new HtmlRowSink(Channels.newChannel(html), HTML_FONT)) {
+            sink.begin(art.length, art[0].length);
+            for (char[] row : art) {
+                sink.row(row);
+            }
+        }
+        return html.toByteArray();
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split(PARAM_SEPARATOR)) {
+            int separator = pair.indexOf(VALUE_SEPARATOR);
+            if (separator > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static void send(HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set(CONTENT_TYPE, type);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -1,14 +1,25 @@
 package ascii_art;
 
-import ascii_output.AsciiOutput;
-import ascii_output.ConsoleAsciiOutput;
-import ascii_output.HtmlAsciiOutput;
+import ascii_stream.FrameSink;
+import ascii_stream.HtmlRowSink;
+import ascii_stream.RowSink;
+import image.FrameReader;
 import image.Image;
+import image.ImageDecoder;
 import image.ImagePad;
+import image.StreamedImage;
+import image.ImageUtils;
+import image_char_matching.ShapeIndex;
 import image_char_matching.SubImgCharMatcher;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Shell class represents a shell interface for generating ASCII art from images.
@@ -32,10 +43,42 @@ public class Shell {
     private static final String COMMAND_RES = "res";
     private static final String COMMAND_IMAGE = "image";
     private static final String COMMAND_OUTPUT = "output";
+    private static final String COMMAND_GRID = "grid";
     private static final String COMMAND_ASCII_ART = "asciiArt";
+    private static final String COMMAND_STATS = "stats";
+    private static final String COMMAND_MATCH = "match";
+    private static final String COMMAND_DITHER = "dither";
+    private static final String COMMAND_COLOR = "color";
+    private static final String COMMAND_ANIMATE = "animate";
     private static final String ALL_CHARS = "all";
-    private static final String HTML_OUTPUT_FORMAT = "html";
-    private static final String CONSOLE_OUTPUT_FORMAT = "console";
+    private static final String HTML_OUTPUT_FORMAT = RenderConfig.HTML_OUTPUT_FORMAT;
+    private static final String CONSOLE_OUTPUT_FORMAT = RenderConfig.CONSOLE_OUTPUT_FORMAT;
+    private static final String COMPACT_HTML_OUTPUT_FORMAT = RenderConfig.COMPACT_HTML_OUTPUT_FORMAT;
+    private static final String GZIP_HTML_OUTPUT_FORMAT = RenderConfig.GZIP_HTML_OUTPUT_FORMAT;
+    private static final String SQUARE_GRID = "square";
+    private static final String ASPECT_GRID = "aspect";
+    private static final String DEFAULT_GRID = SQUARE_GRID;
+    private static final String BRIGHTNESS_MATCH = "brightness";
+    private static final String SHAPE_MATCH = "shape";
+    private static final String DEFAULT_MATCH = BRIGHTNESS_MATCH;
+    private static final String MATCH_INCORRECT_FORMAT = "Did not change matching due to incorrect format.";
+    // Monospace glyphs are about twice as tall as they are wide.
+    private static final double DEFAULT_GLYPH_ASPECT = 2.0;
+    private static final String DITHER_ON = "on";
+    private static final String DITHER_OFF = "off";
+    private static final String DITHER_INCORRECT_FORMAT = "Did not change dithering due to incorrect format.";
+    private static final String COLOR_ON = "on";
+    private static final String COLOR_OFF = "off";
+    private static final String COLOR_INCORRECT_FORMAT = "Did not change colors due to incorrect format.";
+    private static final String ANIMATE_INCORRECT_FORMAT = "Did not animate due to incorrect format.";
+    private static final int ANIMATE_WITH_FPS_LENGTH = 3;
+    private static final int MILLIS_PER_SECOND = 1000;
+    // Keeps the delays of the animation.
+    private static final int ANIMATION_DELAYS = 0;
+    private static final String STATS_ON = "on";
+    private static final String STATS_OFF = "off";
+    private static final String STATS_INCORRECT_FORMAT = "Did not execute stats due to incorrect format.";
+    private static final String GRID_INCORRECT_FORMAT = "Did not change grid due to incorrect format.";
     private static final String OUTPUT_INCORRECT_FORMAT = "Did not change output method due to " +
             "incorrect format.";
     private static final String ADD_INCORRECT_FORMAT = "Did not add due to incorrect format.";
@@ -55,11 +98,36 @@ public class Shell {
     private static final int VALID_REQUEST_LENGTH = 2;
     private static final int ONE_LETTER_FORMAT_AMOUNT = 1;
     private static final int RANGE_OF_LETTERS_FORMAT_AMOUNT = 3;
+    // Code points as U+2588, or ranges as U+2800-U+28FF. Only the BMP, since glyphs are chars.
+    private static final Pattern CODE_POINT_RANGE =
+            Pattern.compile("[Uu]\\+(\\p{XDigit}{1,4})(?:-[Uu]\\+(\\p{XDigit}{1,4}))?");
+    private static final int HEX_RADIX = 16;
+    private static final String PIXEL_BUDGET_PROPERTY = "ascii_art.pixelBudget";
+    private static final long DEFAULT_PIXEL_BUDGET = 1L << 26;
+    // Images that would decode to more pixels than this are streamed from their file instead.
+    private static final long PIXEL_BUDGET = Long.getLong(PIXEL_BUDGET_PROPERTY, DEFAULT_PIXEL_BUDGET);
+    private static final String RENDER_CACHE_DIR_PROPERTY = "ascii_art.renderCacheDir";
+    private static final long RENDER_CACHE_BYTES = 64L << 20;
+    private static final long RENDER_CACHE_DISK_BYTES = 256L << 20;
+    private static final String CONTENT_KEY_SEPARATOR = "@";
+    // Results survive loading another image, and with a cache directory, restarts too.
+    private static final RenderCache renderCache = new RenderCache(RENDER_CACHE_BYTES,
+            System.getProperty(RENDER_CACHE_DIR_PROPERTY) == null ? null :
+                    Paths.get(System.getProperty(RENDER_CACHE_DIR_PROPERTY)), RENDER_CACHE_DISK_BYTES);
     private char[] charset;
     private static SubImgCharMatcher matcher;
     private static int resolution;
     private static Image img;
+    private static StreamedImage streamedImg;
+    private static String imagePath;
+    private static String imageHash;
     private static String outputFormat;
+    private static String gridMode;
+    private static String matchMode;
+    private static boolean dithered;
+    private static boolean colored;
+    private static final ImageUtils imageUtils =
+            new ImageUtils(Runtime.getRuntime().availableProcessors());
 
     // Functional interface mapping
     private static final HashMap<String, FuncWithArgs> REQUESTS = new HashMap<>() {{
@@ -69,7 +137,13 @@ public class Shell {
         put(COMMAND_RES, Shell::resolutionController);
         put(COMMAND_IMAGE, Shell::pathController);
         put(COMMAND_OUTPUT, Shell::outputController);
+        put(COMMAND_GRID, Shell::gridController);
         put(COMMAND_ASCII_ART, Shell::asciiArtAlgorithm);
+        put(COMMAND_STATS, Shell::statsController);
+        put(COMMAND_MATCH, Shell::matchController);
+        put(COMMAND_DITHER, Shell::ditherController);
+        put(COMMAND_COLOR, Shell::colorController);
+        put(COMMAND_ANIMATE, Shell::animationController);
     }};
 
     /**
@@ -80,6 +154,10 @@ public class Shell {
         initCharSet();
         resolution = DEFAULT_RESOLUTION;
         outputFormat = DEFAULT_OUTPUT_FORMAT;
+        gridMode = DEFAULT_GRID;
+        matchMode = DEFAULT_MATCH;
+        dithered = false;
+        colored = false;
         matcher = new SubImgCharMatcher(charset);
         try {
             loadImage(DEFAULT_IMAGE_PATH);
@@ -119,14 +197,79 @@ public class Shell {
         }
     }
 
+    /**
+     * Loads the image at the given path, decoding only as many pixels as the current
+     * resolution can use.
+     *
+     * @param path The path to the image file.
+     */
     private static void loadImage(String path) throws IOException{
         try {
-            img = new ImagePad(path);
+            openImage(path, resolution);
+            imagePath = path;
+            imageHash = RenderCache.hashFile(Paths.get(path));
         } catch (IOException e) {
             throw new IOException(IMAGE_INCORRECT_FORMAT);
         }
     }
 
+    /**
+     * Opens the image at the given path for the given resolution. The image is decoded into
+     * memory, subsampled if the resolution allows it, unless that would exceed the pixel
+     * budget, in which case it is streamed from its file at each render.
+     *
+     * @param path          The path to the image file.
+     * @param forResolution The resolution the image will be rendered at.
+     */
+    private static void openImage(String path, int forResolution) throws IOException {
+        int subsampling = ImageDecoder.subsamplingFor(path, forResolution);
+        long decodedPixels = ImageDecoder.countPixels(path) / ((long) subsampling * subsampling);
+        if (decodedPixels > PIXEL_BUDGET) {
+            streamedImg = new StreamedImage(path);
+            img = null;
+        } else {
+            img = new ImagePad(path, subsampling);
+            streamedImg = null;
+        }
+    }
+
+    /**
+     * Decodes the loaded image again, more finely, if it was subsampled too coarsely for
+     * the given resolution.
+     *
+     * @param newResolution The resolution about to be used.
+     */
+    private static void ensureSampling(int newResolution) throws IOException {
+        if (img == null || img.getSubsampling() == ImageDecoder.FULL_DECODE) {
+            return;
+        }
+        try {
+            if (ImageDecoder.subsamplingFor(imagePath, newResolution) < img.getSubsampling()) {
+                openImage(imagePath, newResolution);
+            }
+        } catch (IOException e) {
+            throw new IOException(IMAGE_INCORRECT_FORMAT);
+        }
+    }
+
+    /**
+     * Retrieves the padded width of the loaded image.
+     *
+     * @return The width of the loaded image.
+     */
+    private static int imageWidth() {
+        return img != null ? img.getWidth() : streamedImg.getWidth();
+    }
+
+    /**
+     * Retrieves the padded height of the loaded image.
+     *
+     * @return The height of the loaded image.
+     */
+    private static int imageHeight() {
+        return img != null ? img.getHeight() : streamedImg.getHeight();
+    }
+
     /**
      * Initializes the character set with ASCII characters.
      */
@@ -160,9 +303,7 @@ public class Shell {
             end = start;
             start = temp;
         }
-        for (int i = start; i <= end; i++) {
-            matcher.addChar((char) i);
-        }
+        matcher.addChars((char) start, (char) end);
     }
 
     /**
@@ -178,9 +319,21 @@ public class Shell {
             end = start;
             start = temp;
         }
-        for (int i = start; i <= end; i++) {
-            matcher.removeChar((char) i);
-        }
+        matcher.removeChars((char) start, (char) end);
+    }
+
+    /**
+     * Parses a code point or a code point range written as U+XXXX or U+XXXX-U+YYYY.
+     *
+     * @param token A token matching CODE_POINT_RANGE.
+     * @return The first and last code points of the range.
+     */
+    private static int[] codePointRange(String token) {
+        Matcher range = CODE_POINT_RANGE.matcher(token);
+        range.matches();
+        int first = Integer.parseInt(range.group(1), HEX_RADIX);
+        int last = range.group(2) == null ? first : Integer.parseInt(range.group(2), HEX_RADIX);
+        return new int[]{first, last};
     }
 
     /**
@@ -189,11 +342,8 @@ public class Shell {
      * @param request The request string (unused here).
      */
     private static void printChars(String request) {
-        List<Map.Entry<Character, Double[]>> listOfChars =
-                new ArrayList<>(matcher.getCharHashMap().entrySet());
-        listOfChars.sort(Map.Entry.comparingByKey());
-        for (Map.Entry<Character, Double[]> entry : listOfChars) {
-            System.out.print(entry.getKey() + SPACE);
+        for (char c : matcher.getCharset()) {
+            System.out.print(c + SPACE);
         }
         System.out.println();
     }
@@ -211,13 +361,15 @@ public class Shell {
         char[] contentToAdd = requestTokens[1].toCharArray();
         if (requestTokens[1].equals(ALL_CHARS)) {
             addToChars(LEGAL_START_ASCII, LEGAL_END_ASCII);
-        } else if (contentToAdd.length == ONE_LETTER_FORMAT_AMOUNT &&
-                LEGAL_START_ASCII <= contentToAdd[0] && contentToAdd[0] <= LEGAL_END_ASCII) {
+        } else if (contentToAdd.length == ONE_LETTER_FORMAT_AMOUNT && LEGAL_START_ASCII <= contentToAdd[0]) {
             addToChars(contentToAdd[0], contentToAdd[0]);
         } else if (contentToAdd.length == RANGE_OF_LETTERS_FORMAT_AMOUNT && contentToAdd[1] == RANGE_SEP) {
             addToChars(contentToAdd[0], contentToAdd[2]);
         } else if (requestTokens[1].equals(SPACE_STRING)) {
             addToChars(SPACE_ASCII, SPACE_ASCII);
+        } else if (CODE_POINT_RANGE.matcher(requestTokens[1]).matches()) {
+            int[] range = codePointRange(requestTokens[1]);
+            addToChars(range[0], range[1]);
         } else {
             throw new IOException(ADD_INCORRECT_FORMAT);
         }
@@ -236,13 +388,15 @@ public class Shell {
         char[] contentToAdd = requestTokens[1].toCharArray();
         if (requestTokens[1].equals(ALL_CHARS)) {
             deleteChars(LEGAL_START_ASCII, LEGAL_END_ASCII);
-        } else if (contentToAdd.length == ONE_LETTER_FORMAT_AMOUNT &&
-                LEGAL_START_ASCII <= contentToAdd[0] && contentToAdd[0] <= LEGAL_END_ASCII) {
+        } else if (contentToAdd.length == ONE_LETTER_FORMAT_AMOUNT && LEGAL_START_ASCII <= contentToAdd[0]) {
             deleteChars(contentToAdd[0], contentToAdd[0]);
         } else if (contentToAdd.length == RANGE_OF_LETTERS_FORMAT_AMOUNT && contentToAdd[1] == RANGE_SEP) {
             deleteChars(contentToAdd[0], contentToAdd[2]);
         } else if (requestTokens[1].equals(SPACE_STRING)) {
             deleteChars(SPACE_ASCII, SPACE_ASCII);
+        } else if (CODE_POINT_RANGE.matcher(requestTokens[1]).matches()) {
+            int[] range = codePointRange(requestTokens[1]);
+            deleteChars(range[0], range[1]);
         } else {
             throw new IOException(REMOVE_INCORRECT_FORMAT);
         }
@@ -259,14 +413,15 @@ public class Shell {
             throw new IOException(RES_INCORRECT_FORMAT);
         }
         if (requestTokens[1].equals(RES_UP)) {
-            if (resolution * 2 <= img.getWidth()) {
+            ensureSampling(resolution * 2);
+            if (resolution * 2 <= imageWidth()) {
                 resolution *= 2;
                 System.out.println(RES_UPDATE_MSG + resolution);
             } else {
                 throw new ExceedBound(RES_EXCEED_BOUND);
             }
         } else if (requestTokens[1].equals(RES_DOWN)) {
-            if (resolution / 2 >= Math.max(1, img.getWidth() / img.getHeight())) {
+            if (resolution / 2 >= Math.max(1, imageWidth() / imageHeight())) {
                 resolution /= 2;
                 System.out.println(RES_UPDATE_MSG + resolution);
             } else {
@@ -291,7 +446,7 @@ public class Shell {
     }
 
     /**
-     * Controls the output format (HTML or console).
+     * Controls the output format: console, html, compact html or gzip-compressed compact html.
      *
      * @param request The request string containing the output format.
      */
@@ -304,28 +459,248 @@ public class Shell {
             outputFormat = HTML_OUTPUT_FORMAT;
         } else if (requestTokens[1].equals(CONSOLE_OUTPUT_FORMAT)) {
             outputFormat = CONSOLE_OUTPUT_FORMAT;
+        } else if (requestTokens[1].equals(COMPACT_HTML_OUTPUT_FORMAT)) {
+            outputFormat = COMPACT_HTML_OUTPUT_FORMAT;
+        } else if (requestTokens[1].equals(GZIP_HTML_OUTPUT_FORMAT)) {
+            outputFormat = GZIP_HTML_OUTPUT_FORMAT;
         } else {
             throw new IOException(OUTPUT_INCORRECT_FORMAT);
         }
     }
 
+    /**
+     * Controls the tile grid: a square resolution x resolution grid over the padded image, or an
+     * aspect-correct grid of resolution columns over the unpadded image.
+     *
+     * @param request The request string containing the grid mode.
+     */
+    private static void gridController(String request) throws IOException{
+        String[] requestTokens = request.split(SPACE);
+        if (requestTokens.length != VALID_REQUEST_LENGTH) {
+            throw new IOException(GRID_INCORRECT_FORMAT);
+        }
+        if (requestTokens[1].equals(SQUARE_GRID)) {
+            gridMode = SQUARE_GRID;
+        } else if (requestTokens[1].equals(ASPECT_GRID)) {
+            gridMode = ASPECT_GRID;
+        } else {
+            throw new IOException(GRID_INCORRECT_FORMAT);
+        }
+    }
+
+    /**
+     * Controls how tiles are matched to characters: by brightness alone, or by shape among the
+     * characters of similar brightness.
+     *
+     * @param request The request string containing the matching mode.
+     */
+    private static void matchController(String request) throws IOException {
+        String[] requestTokens = request.split(SPACE);
+        if (requestTokens.length != VALID_REQUEST_LENGTH) {
+            throw new IOException(MATCH_INCORRECT_FORMAT);
+        }
+        if (requestTokens[1].equals(BRIGHTNESS_MATCH)) {
+            matchMode = BRIGHTNESS_MATCH;
+        } else if (requestTokens[1].equals(SHAPE_MATCH)) {
+            matchMode = SHAPE_MATCH;
+        } else {
+            throw new IOException(MATCH_INCORRECT_FORMAT);
+        }
+    }
+
+    /**
+     * Controls whether brightness matches diffuse their error into the neighbouring tiles.
+     *
+     * @param request The request string containing on or off.
+     */
+    private static void ditherController(String request) throws IOException {
+        String[] requestTokens = request.split(SPACE);
+        if (requestTokens.length != VALID_REQUEST_LENGTH) {
+            throw new IOException(DITHER_INCORRECT_FORMAT);
+        }
+        if (requestTokens[1].equals(DITHER_ON)) {
+            dithered = true;
+        } else if (requestTokens[1].equals(DITHER_OFF)) {
+            dithered = false;
+        } else {
+            throw new IOException(DITHER_INCORRECT_FORMAT);
+        }
+    }
+
+    /**
+     * Controls whether characters are shown in the mean color of their tile.
+     *
+     * @param request The request string containing on or off.
+     */
+    private static void colorController(String request) throws IOException {
+        String[] requestTokens = request.split(SPACE);
+        if (requestTokens.length != VALID_REQUEST_LENGTH) {
+            throw new IOException(COLOR_INCORRECT_FORMAT);
+        }
+        if (requestTokens[1].equals(COLOR_ON)) {
+            colored = true;
+        } else if (requestTokens[1].equals(COLOR_OFF)) {
+            colored = false;
+        } else {
+            throw new IOException(COLOR_INCORRECT_FORMAT);
+        }
+    }
+
+    /**
+     * Prints the pipeline metrics: the last run of every stage and its running statistics.
+     * 'stats on' and 'stats off' start and stop collecting them.
+     *
+     * @param request The request string, optionally containing on or off.
+     */
+    private static void statsController(String request) throws IOException {
+        String[] requestTokens = request.split(SPACE);
+        if (requestTokens.length == 1) {
+            System.out.print(PipelineMetrics.report());
+        } else if (requestTokens.length != VALID_REQUEST_LENGTH) {
+            throw new IOException(STATS_INCORRECT_FORMAT);
+        } else if (requestTokens[1].equals(STATS_ON)) {
+            PipelineMetrics.setEnabled(true);
+        } else if (requestTokens[1].equals(STATS_OFF)) {
+            PipelineMetrics.setEnabled(false);
+        } else {
+            throw new IOException(STATS_INCORRECT_FORMAT);
+        }
+    }
+
     /**
      * Executes the ASCII art algorithm.
      *
      * @param request The request string (unused here).
      */
-    private static void asciiArtAlgorithm(String request) throws IllegalRequest {
-        if (matcher.getCharHashMap().isEmpty()){
+    private static void asciiArtAlgorithm(String request) throws IOException, IllegalRequest {
+        if (matcher.isEmpty()){
             throw new IllegalRequest(EMPTY_CHARS_SET);
         }
-        AsciiOutput outputExecutor;
-        if (outputFormat.equals(HTML_OUTPUT_FORMAT)) {
-            outputExecutor = new HtmlAsciiOutput(DEFAULT_OUTPUT_NAME, DEFAULT_OUTPUT_FONT);
-        } else {
-            outputExecutor = new ConsoleAsciiOutput();
+        RenderConfig config = snapshotConfig();
+        // The subsampling shapes the pixels as much as the file does; streamed images are not subsampled.
+        String contentKey = imageHash + CONTENT_KEY_SEPARATOR +
+                (img != null ? img.getSubsampling() : ImageDecoder.FULL_DECODE);
+        String artKey = RenderCache.artKey(contentKey, config);
+        // Colors are reduced from the pixels at every render, no cache holds them.
+        char[][] output = config.isColored() ? null : renderCache.getArt(artKey);
+        AsciiArtAlgorithm asciiArtAlgorithm = null;
+        if (config.isColored()) {
+            asciiArtAlgorithm = new AsciiArtAlgorithm(config, img, imageUtils);
+        } else if (output == null) {
+            String brightnessKey = RenderCache.brightnessKey(contentKey, config);
+            // Shape matching reads the pixels, a cached brightness grid cannot stand in for them.
+            boolean byBrightness = config.getShapes() == null;
+            double[][] brightness = byBrightness ? renderCache.getBrightness(brightnessKey) : null;
+            if (brightness != null) {
+                asciiArtAlgorithm = new AsciiArtAlgorithm(config, brightness, imageUtils);
+            } else if (streamedImg != null) {
+                try {
+                    asciiArtAlgorithm = new AsciiArtAlgorithm(config, streamedImg);
+                } catch (IOException e) {
+                    throw new IOException(IMAGE_INCORRECT_FORMAT);
+                }
+            } else {
+                asciiArtAlgorithm = new AsciiArtAlgorithm(config, img, imageUtils);
+            }
+            if (brightness == null && byBrightness) {
+                renderCache.putBrightness(brightnessKey, asciiArtAlgorithm.getBrightness());
+            }
+            if (!byBrightness) {
+                // Shape matches are costly enough to keep whole, brightness matches are streamed.
+                output = asciiArtAlgorithm.run();
+                renderCache.putArt(artKey, output);
+            }
+        }
+        RowSink sink = config.createSink();
+        try (StageTimer timer = PipelineMetrics.start(Stage.OUTPUT); sink) {
+            if (output != null) {
+                sink.begin(output.length, output[0].length);
+                for (char[] row : output) {
+                    sink.row(row);
+                }
+                timer.cells((long) output.length * output[0].length);
+            } else {
+                asciiArtAlgorithm.run(sink);
+            }
+        }
+        if (sink instanceof HtmlRowSink) {
+            System.out.println(((HtmlRowSink) sink).getReport());
+        }
+    }
+
+    /**
+     * Renders an animated GIF, or a directory of numbered frames, with the current settings:
+     * played back on the console, or written as a single html page that plays it. Frames are
+     * decoded, matched and written concurrently, and the sustained frame rate is printed.
+     * An optional frame rate replaces the delays of the animation.
+     *
+     * @param request The request string containing the path and optionally the frame rate.
+     */
+    private static void animationController(String request) throws IOException, ExceedBound, IllegalRequest {
+        String[] requestTokens = request.split(SPACE);
+        if (requestTokens.length != VALID_REQUEST_LENGTH && requestTokens.length != ANIMATE_WITH_FPS_LENGTH) {
+            throw new IOException(ANIMATE_INCORRECT_FORMAT);
+        }
+        int delayMillis = ANIMATION_DELAYS;
+        if (requestTokens.length == ANIMATE_WITH_FPS_LENGTH) {
+            try {
+                int fps = Integer.parseInt(requestTokens[2]);
+                if (fps <= 0 || fps > MILLIS_PER_SECOND) {
+                    throw new IOException(ANIMATE_INCORRECT_FORMAT);
+                }
+                delayMillis = MILLIS_PER_SECOND / fps;
+            } catch (NumberFormatException e) {
+                throw new IOException(ANIMATE_INCORRECT_FORMAT);
+            }
         }
-        AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(resolution, img, matcher);
-        char[][] output = asciiArtAlgorithm.run();
-        outputExecutor.out(output);
+        if (matcher.isEmpty()) {
+            throw new IllegalRequest(EMPTY_CHARS_SET);
+        }
+        // Frames are rendered from their pixels, never streamed, and not colored.
+        RenderConfig config = snapshotConfig(false, false);
+        FrameReader frames;
+        try {
+            frames = new FrameReader(requestTokens[1]);
+        } catch (IOException e) {
+            throw new IOException(IMAGE_INCORRECT_FORMAT);
+        }
+        AnimationRenderer renderer = new AnimationRenderer(config, imageUtils, delayMillis);
+        FrameSink sink;
+        try (frames) {
+            sink = config.createFrameSink();
+            try (sink) {
+                renderer.render(frames, sink);
+            }
+        }
+        if (sink instanceof HtmlRowSink) {
+            System.out.println(((HtmlRowSink) sink).getReport());
+        }
+        System.out.print(renderer.getReport());
+    }
+
+    /**
+     * Takes an immutable snapshot of the current settings.
+     *
+     * @return The render configuration of the current settings.
+     */
+    private static RenderConfig snapshotConfig() {
+        // Streamed images only support the square grid and uncolored brightness matching.
+        return snapshotConfig(streamedImg != null, colored && streamedImg == null);
+    }
+
+    /**
+     * Takes an immutable snapshot of the current settings for an image.
+     *
+     * @param streamed  Whether the image is streamed, which allows the square grid and brightness
+     *                  matching only.
+     * @param withColor Whether characters are shown in the mean color of their tile.
+     * @return The render configuration of the current settings.
+     */
+    private static RenderConfig snapshotConfig(boolean streamed, boolean withColor) {
+        double glyphAspect = gridMode.equals(ASPECT_GRID) && !streamed ? DEFAULT_GLYPH_ASPECT :
+                RenderConfig.SQUARE_GRID;
+        ShapeIndex shapes = matchMode.equals(SHAPE_MATCH) && !streamed ? matcher.shapeSnapshot() : null;
+        return new RenderConfig(matcher.snapshot(), shapes, dithered, withColor, resolution,
+                glyphAspect, outputFormat, DEFAULT_OUTPUT_NAME, DEFAULT_OUTPUT_FONT);
     }
 }
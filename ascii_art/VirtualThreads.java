@@ -0,0 +1,41 @@
+package ascii_art;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gives access to virtual threads on runtimes that have them (Java 21 and up) while still
+ * building and running on older ones, where a bounded pool of platform threads is used instead.
+ */
+class VirtualThreads {
+
+    private static final String VIRTUAL_EXECUTOR_FACTORY = "newVirtualThreadPerTaskExecutor";
+    // Idle platform threads end after this long, as in a cached thread pool.
+    private static final long IDLE_SECONDS = 60;
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor when the runtime supports it, and a pool of at
+     * most maxPlatformThreads threads otherwise. Tasks that block hold a platform thread each, so
+     * on older runtimes tasks beyond that many wait in the pool's queue rather than each getting
+     * a thread of its own. Idle platform threads end, so the pool never keeps the JVM alive.
+     *
+     * @param maxPlatformThreads How many tasks may run at once without virtual threads.
+     * @return A new executor.
+     */
+    static ExecutorService newExecutor(int maxPlatformThreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod(VIRTUAL_EXECUTOR_FACTORY).invoke(null);
+        } catch (ReflectiveOperationException e) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxPlatformThreads, maxPlatformThreads,
+                    IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+}
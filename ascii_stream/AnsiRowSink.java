@@ -0,0 +1,54 @@
+package ascii_stream;
+
+import java.io.IOException;
+
+/**
+ * A ConsoleRowSink that prints each character in its color, with ANSI 24-bit color escapes.
+ * An escape is only printed where the color changes along a row, and spaces, which show no
+ * color, never change it, so runs of one color cost a single escape.
+ */
+public class AnsiRowSink extends ConsoleRowSink implements ColorRowSink {
+
+    private static final String COLOR_START = "\u001b[38;2;";
+    private static final char COLOR_SEPARATOR = ';';
+    private static final char COLOR_END = 'm';
+    private static final String RESET = "\u001b[0m";
+    private static final char SPACE = ' ';
+    private static final int NO_COLOR = -1;
+    private static final int CHANNEL_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int CHANNEL_VALUES = 256;
+    // The decimal text of every channel value, so escapes are built without formatting.
+    private static final String[] DECIMALS = new String[CHANNEL_VALUES];
+
+    static {
+        for (int value = 0; value < CHANNEL_VALUES; value++) {
+            DECIMALS[value] = Integer.toString(value);
+        }
+    }
+
+    @Override
+    public void row(char[] row, int[] colors) throws IOException {
+        int current = NO_COLOR;
+        for (int j = 0; j < row.length; j++) {
+            char c = row[j];
+            if (c != SPACE && colors[j] != current) {
+                current = colors[j];
+                writer.write(COLOR_START);
+                writer.write(DECIMALS[current >> RED_SHIFT & CHANNEL_MASK]);
+                writer.write(COLOR_SEPARATOR);
+                writer.write(DECIMALS[current >> GREEN_SHIFT & CHANNEL_MASK]);
+                writer.write(COLOR_SEPARATOR);
+                writer.write(DECIMALS[current & CHANNEL_MASK]);
+                writer.write(COLOR_END);
+            }
+            writer.write(c);
+        }
+        if (current != NO_COLOR) {
+            writer.write(RESET);
+        }
+        writer.write(LINE_SEPARATOR);
+        writer.flush();
+    }
+}
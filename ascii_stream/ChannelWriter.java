@@ -0,0 +1,155 @@
+package ascii_stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes text to a byte channel in UTF-8 through a pair of reusable buffers: characters gather
+ * in a char buffer, are encoded into a direct byte buffer, and reach the channel only when a
+ * buffer fills up or on flush. Nothing is allocated per character or per write.
+ * The writer never closes its channel, its owner does.
+ */
+final class ChannelWriter {
+
+    private static final int BUFFER_CHARS = 1 << 14;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_CHARS);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private long bytesWritten;
+
+    /**
+     * Constructs a ChannelWriter.
+     *
+     * @param channel The channel to write to.
+     */
+    ChannelWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Writes a character.
+     *
+     * @param c The character.
+     * @throws IOException If the channel cannot be written.
+     */
+    void write(char c) throws IOException {
+        if (!chars.hasRemaining()) {
+            encode(false);
+        }
+        chars.put(c);
+    }
+
+    /**
+     * Writes the characters of a string.
+     *
+     * @param text The string.
+     * @throws IOException If the channel cannot be written.
+     */
+    void write(String text) throws IOException {
+        int offset = 0;
+        while (offset < text.length()) {
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+            int count = Math.min(chars.remaining(), text.length() - offset);
+            chars.put(text, offset, offset + count);
+            offset += count;
+        }
+    }
+
+    /**
+     * Writes a range of a char array.
+     *
+     * @param text   The array.
+     * @param offset The first character to write.
+     * @param length The number of characters to write.
+     * @throws IOException If the channel cannot be written.
+     */
+    void write(char[] text, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+            int count = Math.min(chars.remaining(), end - offset);
+            chars.put(text, offset, count);
+            offset += count;
+        }
+    }
+
+    /**
+     * Pushes everything written so far to the channel.
+     *
+     * @throws IOException If the channel cannot be written.
+     */
+    void flush() throws IOException {
+        encode(false);
+        drain();
+    }
+
+    /**
+     * Ends the text: pushes everything written so far, and whatever the encoder still holds,
+     * to the channel. Nothing may be written afterwards.
+     *
+     * @throws IOException If the channel cannot be written.
+     */
+    void finish() throws IOException {
+        encode(true);
+        while (encoder.flush(bytes).isOverflow()) {
+            drain();
+        }
+        drain();
+    }
+
+    /**
+     * Retrieves the number of bytes pushed to the channel so far.
+     *
+     * @return The number of bytes written.
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Encodes the gathered characters into the byte buffer, draining it whenever it fills up.
+     *
+     * @param endOfInput Whether no characters will follow.
+     * @throws IOException If the channel cannot be written.
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        CoderResult result;
+        while ((result = encoder.encode(chars, bytes, endOfInput)).isOverflow()) {
+            drain();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        // A high surrogate whose pair has not been written yet stays for the next round.
+        chars.compact();
+    }
+
+    /**
+     * Writes the whole byte buffer to the channel.
+     *
+     * @throws IOException If the channel cannot be written.
+     */
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            bytesWritten += channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
@@ -0,0 +1,140 @@
+package ascii_stream;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A CompactHtmlRowSink that shows each character in its color, on a black background.
+ * Colors are reduced to the 4096 of the three-digit css form #rgb, and every distinct color
+ * becomes one short css class, declared once in a style element after the rows, so the
+ * palette is deduplicated without knowing it in advance. Consecutive characters of one class
+ * share a single span, and spaces, which show no color, join the span around them.
+ */
+public class ColorHtmlRowSink extends CompactHtmlRowSink implements ColorRowSink {
+
+    private static final String HEADER_START = "<!DOCTYPE html><meta charset=utf-8>" +
+            "<pre style=\"font:4px/1 '";
+    private static final String HEADER_END = "';color:#fff;background:#000\">\n";
+    private static final String SPAN_START = "<span class=";
+    private static final char SPAN_START_END = '>';
+    private static final String SPAN_END = "</span>";
+    private static final String STYLE_START = "</pre><style>";
+    private static final String STYLE_END = "</style>";
+    private static final char CLASS_SELECTOR = '.';
+    private static final String COLOR_RULE = "{color:#";
+    private static final char RULE_END = '}';
+    private static final String CLASS_PREFIX = "c";
+    private static final int CLASS_NAME_RADIX = 36;
+    private static final char ROW_END = '\n';
+    private static final char SPACE = ' ';
+    private static final int NO_CLASS = -1;
+    private static final String HEX_DIGITS = "0123456789abcdef";
+    // Each channel is rounded to one hex digit of #rgb.
+    private static final int DIGIT_BITS = 4;
+    private static final int DIGIT_MASK = 0xF;
+    private static final int PALETTE_SIZE = 1 << (3 * DIGIT_BITS);
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int CHANNEL_MASK = 0xFF;
+
+    // The class of each #rgb color, or NO_CLASS before it is first used.
+    private final int[] classes = new int[PALETTE_SIZE];
+    // The #rgb color and the name of each class, in order of first use.
+    private final int[] classColors = new int[PALETTE_SIZE];
+    private final String[] classNames = new String[PALETTE_SIZE];
+    private int classCount;
+
+    /**
+     * Constructs a ColorHtmlRowSink, creating or truncating its file.
+     *
+     * @param fileName The file to write to, gzip-compressed if it ends with GZIP_SUFFIX.
+     * @param font     The font the rows are displayed with.
+     * @throws IOException If the file cannot be opened.
+     */
+    public ColorHtmlRowSink(String fileName, String font) throws IOException {
+        super(fileName, font);
+        Arrays.fill(classes, NO_CLASS);
+    }
+
+    @Override
+    void writeHeader() throws IOException {
+        writer.write(HEADER_START);
+        writer.write(font);
+        writer.write(HEADER_END);
+    }
+
+    @Override
+    public void row(char[] row, int[] colors) throws IOException {
+        long start = System.nanoTime();
+        int end = visibleLength(row);
+        int current = NO_CLASS;
+        int runStart = 0;
+        for (int j = 0; j < end; j++) {
+            if (row[j] == SPACE) {
+                continue;
+            }
+            int cls = classOf(colors[j]);
+            if (cls != current) {
+                writeEscaped(row, runStart, j);
+                if (current != NO_CLASS) {
+                    writer.write(SPAN_END);
+                }
+                writer.write(SPAN_START);
+                writer.write(classNames[cls]);
+                writer.write(SPAN_START_END);
+                current = cls;
+                runStart = j;
+            }
+        }
+        writeEscaped(row, runStart, end);
+        if (current != NO_CLASS) {
+            writer.write(SPAN_END);
+        }
+        writer.write(ROW_END);
+        encodingNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    void writeFooter() throws IOException {
+        writer.write(STYLE_START);
+        for (int cls = 0; cls < classCount; cls++) {
+            int color = classColors[cls];
+            writer.write(CLASS_SELECTOR);
+            writer.write(classNames[cls]);
+            writer.write(COLOR_RULE);
+            writer.write(HEX_DIGITS.charAt(color >> (2 * DIGIT_BITS) & DIGIT_MASK));
+            writer.write(HEX_DIGITS.charAt(color >> DIGIT_BITS & DIGIT_MASK));
+            writer.write(HEX_DIGITS.charAt(color & DIGIT_MASK));
+            writer.write(RULE_END);
+        }
+        writer.write(STYLE_END);
+    }
+
+    /**
+     * Finds the class of a color, declaring a new one on its first use.
+     *
+     * @param rgb The color, packed as 0xRRGGBB.
+     * @return The class of the color.
+     */
+    private int classOf(int rgb) {
+        int color = digit(rgb >> RED_SHIFT) << (2 * DIGIT_BITS) | digit(rgb >> GREEN_SHIFT) << DIGIT_BITS |
+                digit(rgb);
+        if (classes[color] == NO_CLASS) {
+            classes[color] = classCount;
+            classColors[classCount] = color;
+            classNames[classCount] = CLASS_PREFIX + Integer.toString(classCount, CLASS_NAME_RADIX);
+            classCount++;
+        }
+        return classes[color];
+    }
+
+    /**
+     * Rounds a channel to a hex digit.
+     *
+     * @param channel The channel in its low eight bits.
+     * @return The closest digit d, for the channel value d * 17.
+     */
+    private static int digit(int channel) {
+        return ((channel & CHANNEL_MASK) * DIGIT_MASK + CHANNEL_MASK / 2) / CHANNEL_MASK;
+    }
+}
@@ -0,0 +1,19 @@
+package ascii_stream;
+
+import java.io.IOException;
+
+/**
+ * A RowSink that can also show each character in a color, usually the mean color of its tile.
+ */
+public interface ColorRowSink extends RowSink {
+
+    /**
+     * Writes the next row with the color of each character. The arrays may be reused by the
+     * caller once this returns.
+     *
+     * @param row    The characters of the row.
+     * @param colors The color of each character, packed as 0xRRGGBB.
+     * @throws IOException If the output cannot be written.
+     */
+    void row(char[] row, int[] colors) throws IOException;
+}
@@ -0,0 +1,102 @@
+package ascii_stream;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An HtmlRowSink that writes as few bytes as the page can be shown with: a minimal html5
+ * header, rows without their trailing spaces, and only the characters html text requires
+ * escaped. Each row is scanned once for runs of characters that are written as they are,
+ * and every run goes to the writer as one bulk copy; escapes come from a table indexed by char.
+ */
+public class CompactHtmlRowSink extends HtmlRowSink {
+
+    private static final String HEADER_START = "<!DOCTYPE html><meta charset=utf-8><pre style=\"font:4px/1 '";
+    private static final String HEADER_END = "'\">\n";
+    private static final char ROW_END = '\n';
+    private static final char SPACE = ' ';
+    private static final int ESCAPED_CHARS = 128;
+    // In html text only these two start markup, '>' and quotes are safe as they are.
+    private static final String[] ESCAPES = new String[ESCAPED_CHARS];
+
+    static {
+        ESCAPES['<'] = "&lt;";
+        ESCAPES['&'] = "&amp;";
+    }
+
+    /**
+     * Constructs a CompactHtmlRowSink, creating or truncating its file.
+     *
+     * @param fileName The file to write to, gzip-compressed if it ends with GZIP_SUFFIX.
+     * @param font     The font the rows are displayed with.
+     * @throws IOException If the file cannot be opened.
+     */
+    public CompactHtmlRowSink(String fileName, String font) throws IOException {
+        super(fileName, font);
+    }
+
+    /**
+     * Constructs a CompactHtmlRowSink that writes to a channel, closed with the sink.
+     *
+     * @param channel The channel to write to.
+     * @param font    The font the rows are displayed with.
+     */
+    public CompactHtmlRowSink(WritableByteChannel channel, String font) {
+        super(channel, font);
+    }
+
+    @Override
+    void writeHeader() throws IOException {
+        writer.write(HEADER_START);
+        writer.write(font);
+        writer.write(HEADER_END);
+    }
+
+    @Override
+    void writeRow(char[] row) throws IOException {
+        writeEscaped(row, 0, visibleLength(row));
+        writer.write(ROW_END);
+    }
+
+    /**
+     * Measures a row without its trailing spaces, which show nothing inside pre.
+     *
+     * @param row The characters of the row.
+     * @return The length of the row up to its last character that is not a space.
+     */
+    static int visibleLength(char[] row) {
+        int end = row.length;
+        while (end > 0 && row[end - 1] == SPACE) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Writes a range of a row, escaped. The runs between characters that need escaping are
+     * written as bulk copies.
+     *
+     * @param row  The characters of the row.
+     * @param from The first character to write.
+     * @param to   The character to stop before.
+     * @throws IOException If the file cannot be written.
+     */
+    void writeEscaped(char[] row, int from, int to) throws IOException {
+        int runStart = from;
+        for (int i = from; i < to; i++) {
+            char c = row[i];
+            String escape = c < ESCAPED_CHARS ? ESCAPES[c] : null;
+            if (escape != null) {
+                writer.write(row, runStart, i - runStart);
+                writer.write(escape);
+                runStart = i + 1;
+            }
+        }
+        writer.write(row, runStart, to - runStart);
+    }
+
+    @Override
+    void writeFooter() throws IOException {
+        // The closing tags of pre, body and html may all be left out.
+    }
+}
@@ -0,0 +1,54 @@
+package ascii_stream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A FrameSink that plays an animation on the console: each frame is drawn over the last one,
+ * from the top left corner of a cleared screen, and shown for its delay. A frame that arrives
+ * late is drawn at once, and the frames after it keep their delays from there, so playback
+ * never races to catch up.
+ */
+public class ConsoleFrameSink implements FrameSink {
+
+    private static final String CLEAR_SCREEN = "\u001b[2J";
+    private static final String CURSOR_HOME = "\u001b[H";
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final ChannelWriter writer = new ChannelWriter(Channels.newChannel(System.out));
+    private boolean started;
+    // When the next frame is due, in System.nanoTime.
+    private long due;
+
+    @Override
+    public void frame(char[][] art, int delayMillis) throws IOException {
+        long now = System.nanoTime();
+        if (!started) {
+            writer.write(CLEAR_SCREEN);
+            started = true;
+            due = now;
+        }
+        while (now < due) {
+            LockSupport.parkNanos(due - now);
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException();
+            }
+            now = System.nanoTime();
+        }
+        writer.write(CURSOR_HOME);
+        for (char[] row : art) {
+            writer.write(row, 0, row.length);
+            writer.write(ConsoleRowSink.LINE_SEPARATOR);
+        }
+        writer.flush();
+        due = Math.max(due, now) + delayMillis * NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The standard output stays open for the rest of the program.
+        writer.finish();
+    }
+}
@@ -0,0 +1,34 @@
+package ascii_stream;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+/**
+ * A RowSink that prints each row to the standard output as a line, as soon as it is written.
+ */
+public class ConsoleRowSink implements RowSink {
+
+    /** The end of every printed row. */
+    static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** The writer rows are printed through. */
+    final ChannelWriter writer = new ChannelWriter(Channels.newChannel(System.out));
+
+    @Override
+    public void begin(int rows, int columns) {
+    }
+
+    @Override
+    public void row(char[] row) throws IOException {
+        writer.write(row, 0, row.length);
+        writer.write(LINE_SEPARATOR);
+        // The console shows every row as soon as it is matched.
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The standard output stays open for the rest of the program.
+        writer.finish();
+    }
+}
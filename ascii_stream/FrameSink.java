@@ -0,0 +1,21 @@
+package ascii_stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination the frames of an animation are pushed to, in order, as soon as each one is
+ * matched. Closing the sink finishes the output: it writes whatever follows the last frame
+ * and flushes.
+ */
+public interface FrameSink extends Closeable {
+
+    /**
+     * Writes the next frame.
+     *
+     * @param art         The characters of the frame, row after row. The caller does not reuse them.
+     * @param delayMillis How long the frame is shown before the next one, in milliseconds.
+     * @throws IOException If the output cannot be written.
+     */
+    void frame(char[][] art, int delayMillis) throws IOException;
+}
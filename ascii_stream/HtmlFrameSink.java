@@ -0,0 +1,112 @@
+package ascii_stream;
+
+import java.io.IOException;
+
+/**
+ * A FrameSink that writes an animation as a single html file with a small script that plays it.
+ * Each frame is written, as soon as it arrives, as an entry of a script array holding its delay
+ * and its rows in a string literal, so the page streams like a still one and is never held in
+ * memory as a whole. Rows lose their trailing spaces, and only the characters a script string
+ * requires are escaped. A file name ending in .gz is gzip-compressed in the same pass.
+ * Frames are written through frame, the rows of this sink are the rows of the current frame.
+ */
+public class HtmlFrameSink extends HtmlRowSink implements FrameSink {
+
+    private static final String HEADER_START = "<!DOCTYPE html><meta charset=utf-8><pre id=a style=\"font:4px/1 '";
+    private static final String HEADER_END = "'\"></pre><script>var f=[\n";
+    private static final char FRAME_START = '[';
+    private static final String DELAY_END = ",\"";
+    private static final String FRAME_END = "\"],\n";
+    private static final String ROW_END = "\\n";
+    // Shows each frame for its delay, then the next one, looping.
+    private static final String FOOTER = "],a=document.getElementById(\"a\"),i=0;\n" +
+            "if(f.length)(function s(){a.textContent=f[i][1];setTimeout(s,f[i][0]);i=(i+1)%f.length})();\n" +
+            "</script>\n";
+    private static final int ESCAPED_CHARS = 128;
+    // Inside a script string, quotes and backslashes end or start escapes, and "</" could end
+    // the script element.
+    private static final String[] ESCAPES = new String[ESCAPED_CHARS];
+    // Older script engines end a string at these two.
+    private static final char LINE_SEPARATOR = '\u2028';
+    private static final char PARAGRAPH_SEPARATOR = '\u2029';
+    private static final String LINE_SEPARATOR_ESCAPE = "\\u2028";
+    private static final String PARAGRAPH_SEPARATOR_ESCAPE = "\\u2029";
+
+    static {
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['<'] = "\\x3c";
+    }
+
+    private boolean begun;
+
+    /**
+     * Constructs an HtmlFrameSink, creating or truncating its file.
+     *
+     * @param fileName The file to write to, gzip-compressed if it ends with GZIP_SUFFIX.
+     * @param font     The font the frames are displayed with.
+     * @throws IOException If the file cannot be opened.
+     */
+    public HtmlFrameSink(String fileName, String font) throws IOException {
+        super(fileName, font);
+    }
+
+    @Override
+    public void frame(char[][] art, int delayMillis) throws IOException {
+        long start = System.nanoTime();
+        if (!begun) {
+            writeHeader();
+        }
+        writer.write(FRAME_START);
+        writer.write(Integer.toString(delayMillis));
+        writer.write(DELAY_END);
+        for (char[] row : art) {
+            writeRow(row);
+        }
+        writer.write(FRAME_END);
+        encodingNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    void writeHeader() throws IOException {
+        begun = true;
+        writer.write(HEADER_START);
+        writer.write(font);
+        writer.write(HEADER_END);
+    }
+
+    @Override
+    void writeRow(char[] row) throws IOException {
+        int end = CompactHtmlRowSink.visibleLength(row);
+        int runStart = 0;
+        for (int i = 0; i < end; i++) {
+            char c = row[i];
+            String escape;
+            if (c < ESCAPED_CHARS) {
+                escape = ESCAPES[c];
+            } else if (c == LINE_SEPARATOR) {
+                escape = LINE_SEPARATOR_ESCAPE;
+            } else if (c == PARAGRAPH_SEPARATOR) {
+                escape = PARAGRAPH_SEPARATOR_ESCAPE;
+            } else {
+                escape = null;
+            }
+            if (escape != null) {
+                writer.write(row, runStart, i - runStart);
+                writer.write(escape);
+                runStart = i + 1;
+            }
+        }
+        writer.write(row, runStart, end - runStart);
+        writer.write(ROW_END);
+    }
+
+    @Override
+    void writeFooter() throws IOException {
+        if (!begun) {
+            // No frame arrived, the page still plays the empty animation.
+            writeHeader();
+        }
+        writer.write(FOOTER);
+    }
+}
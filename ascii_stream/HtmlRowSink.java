@@ -0,0 +1,179 @@
+package ascii_stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A RowSink that writes an html file showing the rows in a fixed-width font. Rows go through
+ * the writer's buffers straight to the file, so the page is never held in memory as a whole.
+ * A file name ending in .gz is gzip-compressed in the same pass. The page may also be written
+ * to any channel, such as one over a buffer a server sends from.
+ * The sink measures the bytes it writes and the time it spends encoding, see getReport.
+ */
+public class HtmlRowSink implements RowSink {
+
+    /** The suffix of file names that are written gzip-compressed. */
+    public static final String GZIP_SUFFIX = ".gz";
+    private static final int GZIP_BUFFER_BYTES = 1 << 16;
+    private static final String HEADER_START = "<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n" +
+            "<title>ASCII Art</title>\n</head>\n<body>\n<pre style=\"font-family: '";
+    private static final String HEADER_END = "'; font-size: 4px; line-height: 1;\">\n";
+    private static final String FOOTER = "</pre>\n</body>\n</html>\n";
+    private static final char ROW_END = '\n';
+    private static final String LESS_THAN = "&lt;";
+    private static final String GREATER_THAN = "&gt;";
+    private static final String AMPERSAND = "&amp;";
+    private static final String REPORT_FORMAT = "Wrote %s: %d bytes in %.1f ms";
+    private static final String GZIP_REPORT_FORMAT = "Wrote %s: %d bytes (%d before compression) in %.1f ms";
+    private static final String CHANNEL_REPORT_FORMAT = "Wrote %d bytes in %.1f ms";
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** The writer rows are encoded through. */
+    final ChannelWriter writer;
+    /** The font the rows are displayed with. */
+    final String font;
+    // The file written to, or null for a channel given by the caller.
+    private final Path path;
+    private final WritableByteChannel channel;
+    private final OutputStream compressor;
+    /** The time spent encoding so far, in nanoseconds. */
+    long encodingNanos;
+
+    /**
+     * Constructs an HtmlRowSink, creating or truncating its file.
+     *
+     * @param fileName The file to write to, gzip-compressed if it ends with GZIP_SUFFIX.
+     * @param font     The font the rows are displayed with.
+     * @throws IOException If the file cannot be opened.
+     */
+    public HtmlRowSink(String fileName, String font) throws IOException {
+        this.path = Paths.get(fileName);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        WritableByteChannel target = channel;
+        if (fileName.endsWith(GZIP_SUFFIX)) {
+            compressor = new GZIPOutputStream(Channels.newOutputStream(channel), GZIP_BUFFER_BYTES);
+            target = Channels.newChannel(compressor);
+        } else {
+            compressor = null;
+        }
+        this.writer = new ChannelWriter(target);
+        this.font = font;
+    }
+
+    /**
+     * Constructs an HtmlRowSink that writes to a channel, closed with the sink.
+     *
+     * @param channel The channel to write to.
+     * @param font    The font the rows are displayed with.
+     */
+    public HtmlRowSink(WritableByteChannel channel, String font) {
+        this.path = null;
+        this.channel = channel;
+        this.compressor = null;
+        this.writer = new ChannelWriter(channel);
+        this.font = font;
+    }
+
+    @Override
+    public final void begin(int rows, int columns) throws IOException {
+        long start = System.nanoTime();
+        writeHeader();
+        encodingNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public final void row(char[] row) throws IOException {
+        long start = System.nanoTime();
+        writeRow(row);
+        encodingNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        long start = System.nanoTime();
+        try {
+            writeFooter();
+            writer.finish();
+        } finally {
+            if (compressor != null) {
+                // Writes the gzip trailer, then closes the file.
+                compressor.close();
+            } else {
+                channel.close();
+            }
+            encodingNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Describes what the sink wrote: the file, if any, its size and the time spent encoding it.
+     * Only meaningful once the sink is closed.
+     *
+     * @return The report, on one line.
+     * @throws IOException If the size of the file cannot be read.
+     */
+    public String getReport() throws IOException {
+        double millis = encodingNanos / NANOS_PER_MILLI;
+        if (path == null) {
+            return String.format(CHANNEL_REPORT_FORMAT, writer.getBytesWritten(), millis);
+        }
+        if (compressor != null) {
+            return String.format(GZIP_REPORT_FORMAT, path, Files.size(path), writer.getBytesWritten(), millis);
+        }
+        return String.format(REPORT_FORMAT, path, writer.getBytesWritten(), millis);
+    }
+
+    /**
+     * Writes everything before the first row.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    void writeHeader() throws IOException {
+        writer.write(HEADER_START);
+        writer.write(font);
+        writer.write(HEADER_END);
+    }
+
+    /**
+     * Writes a row, escaped.
+     *
+     * @param row The characters of the row.
+     * @throws IOException If the file cannot be written.
+     */
+    void writeRow(char[] row) throws IOException {
+        for (char c : row) {
+            switch (c) {
+                case '<':
+                    writer.write(LESS_THAN);
+                    break;
+                case '>':
+                    writer.write(GREATER_THAN);
+                    break;
+                case '&':
+                    writer.write(AMPERSAND);
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+        writer.write(ROW_END);
+    }
+
+    /**
+     * Writes everything after the last row.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    void writeFooter() throws IOException {
+        writer.write(FOOTER);
+    }
+}
@@ -0,0 +1,30 @@
+package ascii_stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination the rows of a piece of ASCII art are pushed to, top to bottom, as soon as each
+ * one is matched. Unlike an AsciiOutput, a sink never needs the whole grid, so the time to the
+ * first row and the memory held do not grow with the number of rows.
+ * Closing the sink finishes the output: it writes whatever follows the last row and flushes.
+ */
+public interface RowSink extends Closeable {
+
+    /**
+     * Starts the output, before the first row.
+     *
+     * @param rows    The number of rows that will follow.
+     * @param columns The number of characters in each row.
+     * @throws IOException If the output cannot be written.
+     */
+    void begin(int rows, int columns) throws IOException;
+
+    /**
+     * Writes the next row. The array may be reused by the caller once this returns.
+     *
+     * @param row The characters of the row.
+     * @throws IOException If the output cannot be written.
+     */
+    void row(char[] row) throws IOException;
+}
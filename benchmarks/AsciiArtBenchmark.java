@@ -0,0 +1,82 @@
+package benchmarks;
+
+import ascii_art.AsciiArtAlgorithm;
+import image.Image;
+import image.ImagePad;
+import image.ImageUtils;
+import image_char_matching.SubImgCharMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a full render: tile brightness and character matching, without output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsciiArtBenchmark {
+
+    @Param({"512", "2048", "4096"})
+    public int width;
+
+    @Param({"64", "128", "256"})
+    public int resolution;
+
+    @Param({"10", "94"})
+    public int charsetSize;
+
+    private int height;
+    private int[] pixels;
+    private Image padded;
+    private SubImgCharMatcher matcher;
+    private ImageUtils utils;
+
+    /**
+     * Writes and decodes the synthetic image and builds the charset.
+     *
+     * @throws IOException If the image cannot be written or read.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        height = width / 2;
+        pixels = SyntheticImages.pixels(width, height);
+        padded = new ImagePad(SyntheticImages.writeFile(width, height));
+        matcher = new SubImgCharMatcher(SyntheticImages.charset(charsetSize));
+        utils = new ImageUtils();
+    }
+
+    /**
+     * Renders an image seen for the first time, building its brightness pyramid.
+     *
+     * @return The ASCII art.
+     */
+    @Benchmark
+    public char[][] runCold() {
+        return new AsciiArtAlgorithm(resolution, new Image(pixels, width, height), matcher, utils).run();
+    }
+
+    /**
+     * Renders an image rendered before, as after a charset edit in the shell.
+     *
+     * @return The ASCII art.
+     */
+    @Benchmark
+    public char[][] runWarm() {
+        return new AsciiArtAlgorithm(resolution, padded, matcher, utils).run();
+    }
+}
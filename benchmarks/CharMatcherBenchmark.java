@@ -0,0 +1,79 @@
+package benchmarks;
+
+import image_char_matching.SubImgCharMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the charset side of the pipeline: brightness lookups and charset edits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CharMatcherBenchmark {
+
+    // Brightness values looked up per invocation, spread over [0, 1].
+    private static final int LOOKUPS = 1024;
+    // Printable ASCII that never appears in a charset built by SyntheticImages.
+    private static final char EDITED_CHAR = '~';
+
+    @Param({"10", "40", "94"})
+    public int charsetSize;
+
+    private SubImgCharMatcher matcher;
+    private double[] brightness;
+
+    /**
+     * Builds the matcher and warms its index.
+     */
+    @Setup
+    public void setUp() {
+        matcher = new SubImgCharMatcher(SyntheticImages.charset(charsetSize));
+        matcher.snapshot();
+        brightness = new double[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            brightness[i] = (double) i / (LOOKUPS - 1);
+        }
+    }
+
+    /**
+     * Looks up a batch of brightness values.
+     *
+     * @return A checksum of the matched characters, so the lookups are not eliminated.
+     */
+    @Benchmark
+    public int getCharByImageBrightness() {
+        int sum = 0;
+        for (double b : brightness) {
+            sum += matcher.getCharByImageBrightness(b);
+        }
+        return sum;
+    }
+
+    /**
+     * Adds a character and removes it again, leaving the charset as it was, then runs one
+     * lookup so the rebuilt index is part of the cost.
+     *
+     * @return The matched character.
+     */
+    @Benchmark
+    public char addAndRemoveChar() {
+        matcher.addChar(EDITED_CHAR);
+        matcher.removeChar(EDITED_CHAR);
+        return matcher.getCharByImageBrightness(brightness[LOOKUPS / 2]);
+    }
+}
@@ -0,0 +1,134 @@
+package benchmarks;
+
+import image.Image;
+import image.ImagePad;
+import image.ImageUtils;
+import image.TileStats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the image side of the pipeline: decoding, padding, dividing into tiles and
+ * computing tile brightness and statistics. Images are powers of two in size, so an Image built straight
+ * from pixels tiles exactly like a padded one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageBenchmark {
+
+    @Param({"512", "2048", "4096"})
+    public int width;
+
+    @Param({"64", "128", "256"})
+    public int resolution;
+
+    private String file;
+    private int height;
+    private int[] pixels;
+    private Image padded;
+    private ImageUtils utils;
+
+    /**
+     * Writes the synthetic image and decodes it once for the benchmarks that start from pixels.
+     *
+     * @throws IOException If the image cannot be written or read.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        height = width / 2;
+        file = SyntheticImages.writeFile(width, height);
+        pixels = SyntheticImages.pixels(width, height);
+        padded = new ImagePad(file);
+        utils = new ImageUtils();
+    }
+
+    /**
+     * Decodes the image file.
+     *
+     * @return The decoded image.
+     * @throws IOException If the file cannot be read.
+     */
+    @Benchmark
+    public Image decode() throws IOException {
+        return new Image(file);
+    }
+
+    /**
+     * Decodes and pads the image file, as the shell does on every image change.
+     *
+     * @return The padded image.
+     * @throws IOException If the file cannot be read.
+     */
+    @Benchmark
+    public Image decodeAndPad() throws IOException {
+        return new ImagePad(file);
+    }
+
+    /**
+     * Divides the padded image into resolution x resolution sub-images.
+     *
+     * @return The sub-images.
+     */
+    @Benchmark
+    public Image[][] divideImage() {
+        return utils.divideImage(padded, resolution);
+    }
+
+    /**
+     * Computes tile brightness on a fresh image, so the brightness pyramid is built every time.
+     *
+     * @return The tile brightness.
+     */
+    @Benchmark
+    public double[][] calculateBrightnessCold() {
+        return utils.calculateBrightness(new Image(pixels, width, height), resolution);
+    }
+
+    /**
+     * Computes tile brightness on an image whose brightness pyramid is already built,
+     * as on every render after the first.
+     *
+     * @return The tile brightness.
+     */
+    @Benchmark
+    public double[][] calculateBrightnessWarm() {
+        return utils.calculateBrightness(padded, resolution);
+    }
+
+    /**
+     * Reduces the brightness and color of every tile in one pass over the pixels, as colored
+     * renders do.
+     *
+     * @return The tile statistics.
+     */
+    @Benchmark
+    public TileStats tileStats() {
+        return utils.calculateTileStats(padded, resolution, false);
+    }
+
+    /**
+     * Reduces the brightness, color and brightness variance of every tile in one pass.
+     *
+     * @return The tile statistics.
+     */
+    @Benchmark
+    public TileStats tileStatsWithVariance() {
+        return utils.calculateTileStats(padded, resolution, true);
+    }
+}
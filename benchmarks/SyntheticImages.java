@@ -0,0 +1,77 @@
+package benchmarks;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates the synthetic images the benchmarks run on, so results never depend on files
+ * outside the repository. The same size and seed always give the same pixels.
+ */
+final class SyntheticImages {
+
+    private static final long SEED = 0x5EEDL;
+    private static final String FORMAT = "png";
+    private static final String PREFIX = "ascii_art_bench";
+    private static final int NOISE = 32;
+    private static final int CHANNEL_MAX = 255;
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * Generates a packed ARGB image: a diagonal gradient with per-channel noise, so tiles have
+     * distinct brightness values and no branch in the pipeline is trivially predictable.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The packed ARGB pixels, row after row.
+     */
+    static int[] pixels(int width, int height) {
+        Random random = new Random(SEED);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int base = (int) ((long) (x + y) * (CHANNEL_MAX - NOISE) / (width + height));
+                int red = base + random.nextInt(NOISE);
+                int green = base + random.nextInt(NOISE);
+                int blue = base + random.nextInt(NOISE);
+                pixels[y * width + x] = 0xFF000000 | red << 16 | green << 8 | blue;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Writes a synthetic image to a temporary file, deleted when the JVM exits.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The path of the file.
+     * @throws IOException If the file cannot be written.
+     */
+    static String writeFile(int width, int height) throws IOException {
+        BufferedImage im = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        im.setRGB(0, 0, width, height, pixels(width, height), 0, width);
+        File file = File.createTempFile(PREFIX, "." + FORMAT);
+        file.deleteOnExit();
+        ImageIO.write(im, FORMAT, file);
+        return file.getPath();
+    }
+
+    /**
+     * Builds a charset of the given size out of the printable ASCII characters.
+     *
+     * @param size The number of characters, at most 95.
+     * @return The charset.
+     */
+    static char[] charset(int size) {
+        char[] charset = new char[size];
+        for (int i = 0; i < size; i++) {
+            charset[i] = (char) (' ' + i);
+        }
+        return charset;
+    }
+}
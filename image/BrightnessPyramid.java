@@ -0,0 +1,167 @@
+package image;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A mipmap-style pyramid of tile luminance sums for the square resolution x resolution grids.
+ * The finest level is reduced from the pixels in a single pass, and each coarser level is the
+ * 2x2 sum of the one below it, so every power-of-two resolution up to the finest is a direct
+ * array read. Sums are fixed point integers, so every level is exact and matches what a
+ * LuminanceTable would answer for the same tiles.
+ */
+public class BrightnessPyramid {
+
+    /** The finest resolution a pyramid is ever built at, to bound its memory. */
+    public static final int MAX_RESOLUTION = 1024;
+
+    // levels[k] holds the (2^k) x (2^k) tile sums, row after row.
+    private final long[][] levels;
+    private final int width;
+    private final int height;
+
+    /**
+     * Builds a pyramid from the sums of its finest level.
+     *
+     * @param finestSums       The luminance sums of the finest tiles, padding included, row after row.
+     * @param finestResolution The resolution of the finest level, a power of two.
+     * @param width            The width of the image.
+     * @param height           The height of the image.
+     */
+    BrightnessPyramid(long[] finestSums, int finestResolution, int width, int height) {
+        this.width = width;
+        this.height = height;
+        int finestLevel = Integer.numberOfTrailingZeros(finestResolution);
+        levels = new long[finestLevel + 1][];
+        levels[finestLevel] = finestSums;
+        for (int k = finestLevel - 1; k >= 0; k--) {
+            int resolution = 1 << k;
+            long[] finer = levels[k + 1];
+            long[] coarser = new long[resolution * resolution];
+            for (int i = 0; i < resolution; i++) {
+                int top = 2 * i * 2 * resolution;
+                int bottom = top + 2 * resolution;
+                for (int j = 0; j < resolution; j++) {
+                    coarser[i * resolution + j] = finer[top + 2 * j] + finer[top + 2 * j + 1] +
+                            finer[bottom + 2 * j] + finer[bottom + 2 * j + 1];
+                }
+            }
+            levels[k] = coarser;
+        }
+    }
+
+    /**
+     * Builds the pyramid of an image, reducing its raster in row bands on the pool.
+     *
+     * @param image The image.
+     * @param pool  The pool to build on, or null to build on the calling thread.
+     * @return The pyramid of the image.
+     */
+    static BrightnessPyramid of(Image image, ForkJoinPool pool) {
+        int resolution = finestResolution(image.getWidth(), image.getHeight());
+        int tileWidth = image.getWidth() / resolution;
+        int tileHeight = image.getHeight() / resolution;
+        long[] sums = new long[resolution * resolution];
+        int[] pixels = image.pixels;
+        int rasterWidth = image.rasterWidth;
+        // Each band owns whole rows of tiles, so bands never write to the same sums.
+        RowBands.forEach(pool, resolution, (from, to) -> {
+            int firstRow = Math.max(from * tileHeight, image.rasterY) - image.rasterY;
+            int lastRow = Math.min(to * tileHeight, image.rasterY + image.rasterHeight) - image.rasterY;
+            if (firstRow >= lastRow) {
+                return;
+            }
+            TileRowReducer reducer = new TileRowReducer(sums, resolution, tileWidth, tileHeight,
+                    image.rasterX, image.rasterY, rasterWidth);
+            for (int y = firstRow; y < lastRow; y++) {
+                reducer.addRow(pixels, y * rasterWidth, y);
+            }
+            reducer.flush();
+        });
+        addPadding(sums, resolution, tileWidth, tileHeight, image.rasterX, image.rasterY,
+                image.rasterWidth, image.rasterHeight, LuminanceTable.luminance(image.paddingRgb));
+        return new BrightnessPyramid(sums, resolution, image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Chooses the finest resolution of a pyramid over an image: the largest power of two that
+     * divides both dimensions, so every level tiles the image exactly, capped at MAX_RESOLUTION.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The finest resolution.
+     */
+    static int finestResolution(int width, int height) {
+        return Math.min(MAX_RESOLUTION, Math.min(Integer.lowestOneBit(width), Integer.lowestOneBit(height)));
+    }
+
+    /**
+     * Adds the luminance of the padding around a raster to the tile sums, from the overlap
+     * of each tile with the raster.
+     */
+    static void addPadding(long[] sums, int resolution, int tileWidth, int tileHeight, int rasterX,
+                           int rasterY, int rasterWidth, int rasterHeight, long paddingLuminance) {
+        long tilePixels = (long) tileWidth * tileHeight;
+        for (int i = 0; i < resolution; i++) {
+            int overlapHeight = overlap(i * tileHeight, tileHeight, rasterY, rasterHeight);
+            for (int j = 0; j < resolution; j++) {
+                int overlapWidth = overlap(j * tileWidth, tileWidth, rasterX, rasterWidth);
+                sums[i * resolution + j] += (tilePixels - (long) overlapWidth * overlapHeight) * paddingLuminance;
+            }
+        }
+    }
+
+    private static int overlap(int start, int size, int rasterStart, int rasterSize) {
+        return Math.max(0, Math.min(start + size, rasterStart + rasterSize) - Math.max(start, rasterStart));
+    }
+
+    /**
+     * Checks whether a resolution is a level of the pyramid.
+     *
+     * @param resolution The resolution.
+     * @return true if the resolution is a power of two no finer than the finest level.
+     */
+    public boolean covers(int resolution) {
+        return resolution > 0 && Integer.bitCount(resolution) == 1 &&
+                Integer.numberOfTrailingZeros(resolution) < levels.length;
+    }
+
+    /**
+     * Retrieves the resolution of the finest level.
+     *
+     * @return The finest resolution.
+     */
+    public int getFinestResolution() {
+        return 1 << (levels.length - 1);
+    }
+
+    /**
+     * Reads the brightness of every tile of a level.
+     *
+     * @param resolution The resolution of the level, which the pyramid must cover.
+     * @return A 2D array containing the brightness values of each tile.
+     */
+    public double[][] getBrightness(int resolution) {
+        long[] sums = levels[Integer.numberOfTrailingZeros(resolution)];
+        long tilePixels = (long) (width / resolution) * (height / resolution);
+        double[][] brightnesses = new double[resolution][resolution];
+        for (int i = 0; i < resolution; i++) {
+            for (int j = 0; j < resolution; j++) {
+                brightnesses[i][j] = LuminanceTable.toBrightness(sums[i * resolution + j], tilePixels);
+            }
+        }
+        return brightnesses;
+    }
+
+    /**
+     * Computes the memory held by the pyramid's levels.
+     *
+     * @return The footprint in bytes.
+     */
+    public long getFootprintBytes() {
+        long cells = 0;
+        for (long[] level : levels) {
+            cells += level.length;
+        }
+        return cells * Long.BYTES;
+    }
+}
@@ -0,0 +1,297 @@
+package image;
+
+import org.w3c.dom.Node;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads the frames of an animation one at a time: the frames of an animated GIF, composited
+ * onto its logical screen the way browsers show them, or the images of a directory of numbered
+ * frames, in frame number order. A frame is decoded only when it is asked for, and each one is
+ * returned as a padded image of its own, so frames may be handed to other threads.
+ * A reader is meant to be used by one thread at a time.
+ */
+public class FrameReader implements Closeable {
+
+    /** The delay of frames that do not set their own, in milliseconds. */
+    public static final int DEFAULT_DELAY_MILLIS = 100;
+    private static final String NO_FRAMES = "No frames in ";
+    private static final String GIF_STREAM_FORMAT = "javax_imageio_gif_stream_1.0";
+    private static final String GIF_IMAGE_FORMAT = "javax_imageio_gif_image_1.0";
+    private static final String SCREEN_DESCRIPTOR = "LogicalScreenDescriptor";
+    private static final String SCREEN_WIDTH = "logicalScreenWidth";
+    private static final String SCREEN_HEIGHT = "logicalScreenHeight";
+    private static final String IMAGE_DESCRIPTOR = "ImageDescriptor";
+    private static final String IMAGE_LEFT = "imageLeftPosition";
+    private static final String IMAGE_TOP = "imageTopPosition";
+    private static final String CONTROL_EXTENSION = "GraphicControlExtension";
+    private static final String DISPOSAL_METHOD = "disposalMethod";
+    private static final String DELAY_TIME = "delayTime";
+    private static final String RESTORE_TO_BACKGROUND = "restoreToBackgroundColor";
+    private static final String RESTORE_TO_PREVIOUS = "restoreToPrevious";
+    private static final String NO_DISPOSAL = "none";
+    private static final int MILLIS_PER_CENTISECOND = 10;
+    // Browsers show frames with a shorter delay, in hundredths of a second, at the default delay.
+    private static final int MIN_DELAY_CENTISECONDS = 2;
+    private static final int ALPHA_SHIFT = 24;
+    // Digits in a frame file name, the last run of them is the frame number.
+    private static final String NOT_DIGITS = "\\D+";
+    private static final long UNNUMBERED = Long.MAX_VALUE;
+
+    // The frame files of a directory, or null for an animated file.
+    private final List<Path> files;
+    private final ImageInputStream in;
+    private final ImageReader reader;
+    private int nextFrame;
+    private int delayMillis = DEFAULT_DELAY_MILLIS;
+    // The logical screen of an animated file, frames are drawn onto it.
+    private int[] canvas;
+    private int canvasWidth;
+    private int canvasHeight;
+    // The canvas before the last frame was drawn, kept only when that frame restores it.
+    private int[] previous;
+    // How to dispose of the last frame before the next one is drawn, and where it was drawn.
+    private String disposal = NO_DISPOSAL;
+    private int frameX;
+    private int frameY;
+    private int frameWidth;
+    private int frameHeight;
+
+    /**
+     * Opens an animation: a directory of numbered frames, or an image file whose images are the
+     * frames, such as an animated GIF. A still image reads as a single frame.
+     *
+     * @param path The path to the directory or the file.
+     * @throws IOException If the directory holds no files, or the file cannot be read.
+     */
+    public FrameReader(String path) throws IOException {
+        Path directory = Paths.get(path);
+        if (Files.isDirectory(directory)) {
+            files = listFrames(directory);
+            if (files.isEmpty()) {
+                throw new IOException(NO_FRAMES + path);
+            }
+            in = null;
+            reader = null;
+        } else {
+            files = null;
+            in = ImageDecoder.open(path);
+            reader = ImageDecoder.readerFor(in, path);
+            // Frames are read in order, but their metadata places them on the screen.
+            reader.setInput(in, true, false);
+        }
+    }
+
+    /**
+     * Decodes the next frame.
+     *
+     * @return The next frame, padded, or null once every frame has been read.
+     * @throws IOException If the frame cannot be decoded.
+     */
+    public Image next() throws IOException {
+        if (files != null) {
+            if (nextFrame == files.size()) {
+                return null;
+            }
+            return new ImagePad(files.get(nextFrame++).toString());
+        }
+        int[] pixels;
+        try (StageTimer timer = PipelineMetrics.start(Stage.DECODE)) {
+            BufferedImage frame;
+            try {
+                frame = reader.read(nextFrame);
+            } catch (IndexOutOfBoundsException e) {
+                return null;
+            }
+            IIOMetadata metadata = reader.getImageMetadata(nextFrame++);
+            if (canvas == null) {
+                openCanvas(frame);
+            }
+            pixels = draw(frame, metadata);
+            timer.cells((long) frame.getWidth() * frame.getHeight());
+        }
+        return new ImagePad(pixels, canvasWidth, canvasHeight);
+    }
+
+    /**
+     * Retrieves how long the frame last returned by next is shown.
+     *
+     * @return The delay before the following frame, in milliseconds.
+     */
+    public int getDelayMillis() {
+        return delayMillis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.dispose();
+            in.close();
+        }
+    }
+
+    /**
+     * Creates the logical screen, sized by the stream metadata of a GIF and by the first frame
+     * otherwise, and cleared to the padding color.
+     *
+     * @param first The first frame.
+     * @throws IOException If the stream metadata cannot be read.
+     */
+    private void openCanvas(BufferedImage first) throws IOException {
+        canvasWidth = first.getWidth();
+        canvasHeight = first.getHeight();
+        IIOMetadata stream = reader.getStreamMetadata();
+        if (stream != null && GIF_STREAM_FORMAT.equals(stream.getNativeMetadataFormatName())) {
+            IIOMetadataNode screen = child(stream.getAsTree(GIF_STREAM_FORMAT), SCREEN_DESCRIPTOR);
+            if (screen != null) {
+                canvasWidth = Math.max(canvasWidth, Integer.parseInt(screen.getAttribute(SCREEN_WIDTH)));
+                canvasHeight = Math.max(canvasHeight, Integer.parseInt(screen.getAttribute(SCREEN_HEIGHT)));
+            }
+        }
+        canvas = new int[canvasWidth * canvasHeight];
+        Arrays.fill(canvas, ImagePad.DEFAULT_PADDING_RGB);
+    }
+
+    /**
+     * Disposes of the last frame, then draws a frame onto the screen at the position its
+     * metadata gives, leaving the screen where the frame is transparent.
+     *
+     * @param frame    The decoded frame.
+     * @param metadata The metadata of the frame.
+     * @return A copy of the screen with the frame drawn.
+     */
+    private int[] draw(BufferedImage frame, IIOMetadata metadata) {
+        dispose();
+        frameX = 0;
+        frameY = 0;
+        disposal = NO_DISPOSAL;
+        delayMillis = DEFAULT_DELAY_MILLIS;
+        if (metadata != null && GIF_IMAGE_FORMAT.equals(metadata.getNativeMetadataFormatName())) {
+            Node tree = metadata.getAsTree(GIF_IMAGE_FORMAT);
+            IIOMetadataNode descriptor = child(tree, IMAGE_DESCRIPTOR);
+            if (descriptor != null) {
+                frameX = Integer.parseInt(descriptor.getAttribute(IMAGE_LEFT));
+                frameY = Integer.parseInt(descriptor.getAttribute(IMAGE_TOP));
+            }
+            IIOMetadataNode control = child(tree, CONTROL_EXTENSION);
+            if (control != null) {
+                disposal = control.getAttribute(DISPOSAL_METHOD);
+                int delay = Integer.parseInt(control.getAttribute(DELAY_TIME));
+                if (delay >= MIN_DELAY_CENTISECONDS) {
+                    delayMillis = delay * MILLIS_PER_CENTISECOND;
+                }
+            }
+        }
+        if (disposal.equals(RESTORE_TO_PREVIOUS)) {
+            previous = canvas.clone();
+        }
+        // Only the part of the frame that falls on the screen is drawn.
+        int left = Math.max(0, frameX);
+        int top = Math.max(0, frameY);
+        int right = Math.min(canvasWidth, frameX + frame.getWidth());
+        int bottom = Math.min(canvasHeight, frameY + frame.getHeight());
+        int sourceX = left - frameX;
+        int sourceY = top - frameY;
+        frameX = left;
+        frameY = top;
+        frameWidth = Math.max(0, right - left);
+        frameHeight = Math.max(0, bottom - top);
+        if (frameWidth > 0) {
+            int[] row = new int[frameWidth];
+            for (int y = top; y < bottom; y++) {
+                frame.getRGB(sourceX, sourceY + y - top, frameWidth, 1, row, 0, frameWidth);
+                int offset = y * canvasWidth + left;
+                for (int x = 0; x < frameWidth; x++) {
+                    if (row[x] >>> ALPHA_SHIFT != 0) {
+                        canvas[offset + x] = row[x];
+                    }
+                }
+            }
+        }
+        return canvas.clone();
+    }
+
+    /**
+     * Disposes of the last frame as it asked: clears its area to the background, restores the
+     * screen as it was before it, or leaves it in place.
+     */
+    private void dispose() {
+        if (disposal.equals(RESTORE_TO_BACKGROUND)) {
+            for (int y = frameY; y < frameY + frameHeight; y++) {
+                int offset = y * canvasWidth + frameX;
+                Arrays.fill(canvas, offset, offset + frameWidth, ImagePad.DEFAULT_PADDING_RGB);
+            }
+        } else if (disposal.equals(RESTORE_TO_PREVIOUS) && previous != null) {
+            canvas = previous;
+            previous = null;
+        }
+    }
+
+    /**
+     * Finds the first child of a metadata node with the given name.
+     *
+     * @param parent The node.
+     * @param name   The name of the child.
+     * @return The child, or null if there is none.
+     */
+    private static IIOMetadataNode child(Node parent, String name) {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeName().equals(name)) {
+                return (IIOMetadataNode) node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the frame files of a directory, ordered by the last number in their names, so that
+     * frame10 follows frame9. Files without a number follow, in name order.
+     *
+     * @param directory The directory.
+     * @return The regular, non-hidden files of the directory.
+     * @throws IOException If the directory cannot be listed.
+     */
+    private static List<Path> listFrames(Path directory) throws IOException {
+        List<Path> frames = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path) && !Files.isHidden(path)) {
+                    frames.add(path);
+                }
+            }
+        }
+        frames.sort(Comparator.comparingLong(FrameReader::frameNumber).thenComparing(Path::getFileName));
+        return frames;
+    }
+
+    private static long frameNumber(Path path) {
+        String[] numbers = path.getFileName().toString().split(NOT_DIGITS);
+        for (int i = numbers.length - 1; i >= 0; i--) {
+            if (!numbers[i].isEmpty()) {
+                try {
+                    return Long.parseLong(numbers[i]);
+                } catch (NumberFormatException e) {
+                    return UNNUMBERED;
+                }
+            }
+        }
+        return UNNUMBERED;
+    }
+}
@@ -1,30 +1,53 @@
 package image;
 
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A package-private class of the package image.
+ * The pixels are kept in a single packed ARGB int array, row after row. The array may cover
+ * only a rectangle of the image (the raster); every pixel outside it has the padding color.
  * @author Dan Nirel
  */
 public class Image {
 
     private static final String FILE_SUFFIX_FORMAT = "jpeg";
     private static final String FILE_PRE_SUF_SEPARATOR = ".";
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int CHANNEL_MASK = 0xFF;
+
+    private BrightnessPyramid brightnessPyramid;
 
-    private Map<Integer, double[][]> brightnessCache;
+    private LuminanceTable luminanceTable;
 
-    Color[][] pixelArray;
+    int[] pixels;
 
     int width;
 
     int height;
 
+    // The rectangle of the image covered by pixels, the rest of the image is padding.
+    int rasterX;
+
+    int rasterY;
+
+    int rasterWidth;
+
+    int rasterHeight;
+
+    int paddingRgb;
+
+    private final int subsampling;
+
     /**
      * Constructs an Image object from the specified file.
      *
@@ -32,32 +55,47 @@ public class Image {
      * @throws IOException If an I/O error occurs while reading the image file.
      */
     public Image(String filename) throws IOException {
-        BufferedImage im = ImageIO.read(new File(filename));
-        width = im.getWidth();
-        height = im.getHeight();
-        brightnessCache = new HashMap<>();
+        this(filename, ImageDecoder.FULL_DECODE);
+    }
 
+    /**
+     * Constructs an Image object from the specified file, decoding only one pixel out of
+     * every subsampling pixels in each direction.
+     *
+     * @param filename    The path to the image file.
+     * @param subsampling The subsampling factor, 1 to decode every pixel.
+     * @throws IOException If an I/O error occurs while reading the image file.
+     */
+    public Image(String filename, int subsampling) throws IOException {
+        this.subsampling = subsampling;
+        try (StageTimer timer = PipelineMetrics.start(Stage.DECODE)) {
+            BufferedImage im = ImageDecoder.read(filename, subsampling);
+            width = im.getWidth();
+            height = im.getHeight();
 
-        pixelArray = new Color[height][width];
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                pixelArray[i][j]=new Color(im.getRGB(j, i));
-            }
+            // Bulk read straight into the packed raster, no per-pixel objects.
+            pixels = new int[width * height];
+            im.getRGB(0, 0, width, height, pixels, 0, width);
+            timer.cells(pixels.length);
         }
+        rasterWidth = width;
+        rasterHeight = height;
     }
 
     /**
-     * Constructs an Image object from a 2D array of colors.
+     * Constructs an Image object from a packed ARGB pixel array.
      *
-     * @param pixelArray The 2D array of colors representing the pixels of the image.
-     * @param width      The width of the image.
-     * @param height     The height of the image.
+     * @param pixels The packed ARGB pixels of the image, row after row.
+     * @param width  The width of the image.
+     * @param height The height of the image.
      */
-    public Image(Color[][] pixelArray, int width, int height) {
-        this.pixelArray = pixelArray;
+    public Image(int[] pixels, int width, int height) {
+        this.pixels = pixels;
         this.width = width;
         this.height = height;
-        brightnessCache = new HashMap<>();
+        this.rasterWidth = width;
+        this.rasterHeight = height;
+        this.subsampling = ImageDecoder.FULL_DECODE;
     }
 
     /**
@@ -79,30 +117,126 @@ public class Image {
     }
 
     /**
-     * Retrieves the color of the pixel at the specified coordinates.
+     * Retrieves the subsampling factor the image was decoded with.
+     *
+     * @return The subsampling factor, 1 if every source pixel was decoded.
+     */
+    public int getSubsampling() {
+        return subsampling;
+    }
+
+    /**
+     * Retrieves the packed ARGB value of the pixel at the specified coordinates.
+     *
+     * @param x The x-coordinate (column) of the pixel.
+     * @param y The y-coordinate (row) of the pixel.
+     * @return The packed ARGB value of the pixel.
+     */
+    public int getPixel(int x, int y) {
+        int rasterCol = x - rasterX;
+        int rasterRow = y - rasterY;
+        if (rasterCol < 0 || rasterRow < 0 || rasterCol >= rasterWidth || rasterRow >= rasterHeight) {
+            return paddingRgb;
+        }
+        return pixels[rasterRow * rasterWidth + rasterCol];
+    }
+
+    /**
+     * Retrieves the red channel of the pixel at the specified coordinates.
+     *
+     * @param x The x-coordinate (column) of the pixel.
+     * @param y The y-coordinate (row) of the pixel.
+     * @return The red value, between 0 and 255.
+     */
+    public int getRed(int x, int y) {
+        return red(getPixel(x, y));
+    }
+
+    /**
+     * Retrieves the green channel of the pixel at the specified coordinates.
+     *
+     * @param x The x-coordinate (column) of the pixel.
+     * @param y The y-coordinate (row) of the pixel.
+     * @return The green value, between 0 and 255.
+     */
+    public int getGreen(int x, int y) {
+        return green(getPixel(x, y));
+    }
+
+    /**
+     * Retrieves the blue channel of the pixel at the specified coordinates.
      *
-     * @param x The x-coordinate of the pixel.
-     * @param y The y-coordinate of the pixel.
-     * @return The color of the pixel at the specified coordinates.
+     * @param x The x-coordinate (column) of the pixel.
+     * @param y The y-coordinate (row) of the pixel.
+     * @return The blue value, between 0 and 255.
      */
-    public Color getPixel(int x, int y) {
-        return pixelArray[x][y];
+    public int getBlue(int x, int y) {
+        return blue(getPixel(x, y));
     }
 
     /**
-     * Retrieves the brightnessCache of the image.
+     * Extracts the red channel from a packed ARGB value.
      *
-     * @return The brightnessCache of the image.
+     * @param argb The packed ARGB value.
+     * @return The red value, between 0 and 255.
      */
-    public Map<Integer, double[][]> getBrightnessCache(){
-        return brightnessCache;
+    public static int red(int argb) {
+        return (argb >> RED_SHIFT) & CHANNEL_MASK;
     }
 
     /**
-     * Puts new key-Value to the brightnessCache of the image.
+     * Extracts the green channel from a packed ARGB value.
+     *
+     * @param argb The packed ARGB value.
+     * @return The green value, between 0 and 255.
      */
-    public void putBrightnessCache(Integer resolution, double[][] brightnesses){
-        brightnessCache.put(resolution, brightnesses);
+    public static int green(int argb) {
+        return (argb >> GREEN_SHIFT) & CHANNEL_MASK;
+    }
+
+    /**
+     * Extracts the blue channel from a packed ARGB value.
+     *
+     * @param argb The packed ARGB value.
+     * @return The blue value, between 0 and 255.
+     */
+    public static int blue(int argb) {
+        return argb & CHANNEL_MASK;
+    }
+
+    /**
+     * Retrieves the brightness pyramid of the image, building it on first use.
+     *
+     * @param pool The pool to build the pyramid on, or null to build it on the calling thread.
+     * @return The brightness pyramid of the image.
+     */
+    public synchronized BrightnessPyramid getBrightnessPyramid(ForkJoinPool pool) {
+        if (brightnessPyramid == null) {
+            brightnessPyramid = BrightnessPyramid.of(this, pool);
+        }
+        return brightnessPyramid;
+    }
+
+    /**
+     * Retrieves the luminance summed-area table of the image, building it on first use.
+     *
+     * @return The luminance table of the image.
+     */
+    public LuminanceTable getLuminanceTable() {
+        return getLuminanceTable(null);
+    }
+
+    /**
+     * Retrieves the luminance summed-area table of the image, building it on first use.
+     *
+     * @param pool The pool to build the table on, or null to build it on the calling thread.
+     * @return The luminance table of the image.
+     */
+    public synchronized LuminanceTable getLuminanceTable(ForkJoinPool pool) {
+        if (luminanceTable == null) {
+            luminanceTable = new LuminanceTable(this, pool);
+        }
+        return luminanceTable;
     }
 
     /**
@@ -111,15 +245,15 @@ public class Image {
      * @param fileName The name of the file to save the image to.
      */
     public void saveImage(String fileName){
-        // Initialize BufferedImage, assuming Color[][] is already properly populated.
-        BufferedImage bufferedImage = new BufferedImage(pixelArray[0].length, pixelArray.length,
-                BufferedImage.TYPE_INT_RGB);
-        // Set each pixel of the BufferedImage to the color from the Color[][].
-        for (int x = 0; x < pixelArray.length; x++) {
-            for (int y = 0; y < pixelArray[x].length; y++) {
-                bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        if (rasterWidth != width || rasterHeight != height) {
+            int[] paddingRow = new int[width];
+            Arrays.fill(paddingRow, paddingRgb);
+            for (int y = 0; y < height; y++) {
+                bufferedImage.setRGB(0, y, width, 1, paddingRow, 0, width);
             }
         }
+        bufferedImage.setRGB(rasterX, rasterY, rasterWidth, rasterHeight, pixels, 0, rasterWidth);
         File outputfile = new File(fileName + FILE_PRE_SUF_SEPARATOR + FILE_SUFFIX_FORMAT);
         try {
             ImageIO.write(bufferedImage, FILE_SUFFIX_FORMAT, outputfile);
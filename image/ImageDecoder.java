@@ -0,0 +1,111 @@
+package image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Decodes image files through an ImageReader, so that only as many pixels as needed are decoded.
+ * A subsampling factor of s keeps one pixel out of every s in each direction, which cuts both
+ * decode time and heap by about s squared.
+ */
+public class ImageDecoder {
+
+    /** The subsampling factor that decodes every pixel. */
+    public static final int FULL_DECODE = 1;
+    /** How many decoded pixels each tile should keep along each side, at least. */
+    public static final int MIN_SAMPLES_PER_TILE = 8;
+    static final int FIRST_IMAGE = 0;
+    private static final String NO_READER = "No image reader for ";
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Chooses the coarsest subsampling of a file that still leaves each tile of a
+     * resolution x resolution grid with at least MIN_SAMPLES_PER_TILE pixels per side.
+     * The factor is a power of two, so padding the sample to powers of two gives the same
+     * tile grid, scaled down, as padding the full image. Only the file header is read.
+     *
+     * @param filename   The path to the image file.
+     * @param resolution The resolution the image will be rendered at.
+     * @return The subsampling factor, FULL_DECODE when every pixel is needed.
+     * @throws IOException If the file cannot be read.
+     */
+    public static int subsamplingFor(String filename, int resolution) throws IOException {
+        try (ImageInputStream in = open(filename)) {
+            ImageReader reader = readerFor(in, filename);
+            try {
+                int shortSide = Math.min(reader.getWidth(FIRST_IMAGE), reader.getHeight(FIRST_IMAGE));
+                int subsampling = shortSide / (resolution * MIN_SAMPLES_PER_TILE);
+                // A power of two keeps the padded grid of the sample aligned with the full image's.
+                return Math.max(FULL_DECODE, Integer.highestOneBit(subsampling));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Counts the pixels of a file without decoding it. Only the file header is read.
+     *
+     * @param filename The path to the image file.
+     * @return The width times the height of the image.
+     * @throws IOException If the file cannot be read.
+     */
+    public static long countPixels(String filename) throws IOException {
+        try (ImageInputStream in = open(filename)) {
+            ImageReader reader = readerFor(in, filename);
+            try {
+                return (long) reader.getWidth(FIRST_IMAGE) * reader.getHeight(FIRST_IMAGE);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes a file, keeping one pixel out of every subsampling pixels in each direction.
+     *
+     * @param filename    The path to the image file.
+     * @param subsampling The subsampling factor, FULL_DECODE for every pixel.
+     * @return The decoded image.
+     * @throws IOException If the file cannot be read or decoded.
+     */
+    static BufferedImage read(String filename, int subsampling) throws IOException {
+        try (ImageInputStream in = open(filename)) {
+            ImageReader reader = readerFor(in, filename);
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(FIRST_IMAGE, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static ImageInputStream open(String filename) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(new File(filename));
+        if (in == null) {
+            throw new IOException(NO_READER + filename);
+        }
+        return in;
+    }
+
+    static ImageReader readerFor(ImageInputStream in, String filename) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            in.close();
+            throw new IOException(NO_READER + filename);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+}
@@ -1,15 +1,18 @@
 package image;
 
-import java.awt.*;
-import java.awt.image.BufferedImage;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import java.awt.Color;
 import java.io.IOException;
 
 /**
  * This class extends the Image class and provides functionality to pad an image
- * to make its dimensions power of two.
+ * to make its dimensions power of two. The padding is virtual and costs no memory.
  */
 public class ImagePad extends Image {
-    private static final Color DEFAULT_PADDING_COLOR = Color.WHITE;
+    static final int DEFAULT_PADDING_RGB = Color.WHITE.getRGB();
     private static final int EMPTY_PIXEL = 0;
 
     /**
@@ -23,10 +26,47 @@ public class ImagePad extends Image {
         padImage();
     }
 
+    /**
+     * Constructs an ImagePad object from a subsampled decode of the specified file.
+     *
+     * @param filename    The filename of the image to pad.
+     * @param subsampling The subsampling factor, 1 to decode every pixel.
+     * @throws IOException If an I/O error occurs.
+     */
+    public ImagePad(String filename, int subsampling) throws IOException {
+        super(filename, subsampling);
+        padImage();
+    }
+
+    /**
+     * Constructs an ImagePad object around a packed ARGB pixel array, such as a decoded
+     * frame of an animation. The array is not copied.
+     *
+     * @param pixels The packed ARGB pixels of the image, row after row.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     */
+    public ImagePad(int[] pixels, int width, int height) {
+        super(pixels, width, height);
+        padImage();
+    }
+
     /**
      * Pads the image to make its dimensions power of two.
+     * No pixel is copied: the image grows around its raster, and every pixel outside the
+     * raster reads as the padding color.
      */
     private void padImage() {
+        try (StageTimer timer = PipelineMetrics.start(Stage.PAD)) {
+            padRaster();
+            timer.cells((long) getWidth() * getHeight());
+        }
+    }
+
+    /**
+     * Grows the image around its raster up to the closest powers of two.
+     */
+    private void padRaster() {
         int newWidth = closestPowerOfTwo(getWidth());
         int newHeight = closestPowerOfTwo(getHeight());
 
@@ -34,45 +74,14 @@ public class ImagePad extends Image {
             return; // No need to pad if dimensions are already power of two
         }
 
-        BufferedImage paddedImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-
-        // Fill the image with white.
-        Graphics2D g2d = paddedImage.createGraphics();
-        g2d.setColor(DEFAULT_PADDING_COLOR);
-        g2d.fillRect(EMPTY_PIXEL, EMPTY_PIXEL, paddedImage.getWidth(), paddedImage.getHeight());
-        g2d.dispose();
-
-        // Calculate padding on left and top sides
-        int padLeft = (newWidth - getWidth()) / 2;
-        int padTop = (newHeight - getHeight()) / 2;
+        // Place the raster with symmetric padding on the left and top sides
+        super.rasterX = (newWidth - getWidth()) / 2;
+        super.rasterY = (newHeight - getHeight()) / 2;
+        super.paddingRgb = DEFAULT_PADDING_RGB;
 
-        // Copy original pixels to padded image with symmetric padding
-        for (int i = 0; i < getHeight(); i++) {
-            for (int j = 0; j < getWidth(); j++) {
-                paddedImage.setRGB(j + padLeft, i + padTop, getPixel(i, j).getRGB());
-            }
-        }
-
-        // Fill remaining pixels with white
-        for (int i = 0; i < newHeight; i++) {
-            for (int j = 0; j < newWidth; j++) {
-                if (paddedImage.getRGB(j, i) == EMPTY_PIXEL) { // Check if pixel is empty
-                    paddedImage.setRGB(j, i, DEFAULT_PADDING_COLOR.getRGB());
-                }
-            }
-        }
-
-        // Update image dimensions and pixel array
-        super.pixelArray = new Color[newHeight][newWidth];
+        // Update image dimensions
         super.width = newWidth;
         super.height = newHeight;
-
-        // Set pixel array from padded image
-        for (int i = 0; i < newHeight; i++) {
-            for (int j = 0; j < newWidth; j++) {
-                super.pixelArray[i][j] = new Color(paddedImage.getRGB(j, i));
-            }
-        }
     }
 
     /**
@@ -81,7 +90,7 @@ public class ImagePad extends Image {
      * @param number The number for which to find the closest power of two.
      * @return The closest power of two to the given number.
      */
-    private int closestPowerOfTwo(int number) {
+    static int closestPowerOfTwo(int number) {
         // If the number is already a power of 2, number - 1 is the opposite of number, bitwise.
         if ((number & (number - 1)) == EMPTY_PIXEL) {
             return number;
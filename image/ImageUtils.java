@@ -1,20 +1,72 @@
 package image;
 
-import java.awt.Color;
-import java.util.HashMap;
-import java.util.Map;
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The ImageUtils class provides utility methods for image processing.
+ * Work over the tile grid can be split into row bands and run on a fork-join pool;
+ * the parallel path produces exactly the same results as the sequential one.
  */
 public class ImageUtils {
 
-    // Constants
-    private static final double RED_WEIGHT = 0.2126;
-    private static final double GREEN_WEIGHT = 0.7152;
-    private static final double BLUE_WEIGHT = 0.0722;
-    private static final double MAX_PIXEL_VALUE = 255.0;
-    private static final double MIN_PIXEL_VALUE = 0.0;
+    private static final int SEQUENTIAL = 1;
+    private static final String ILLEGAL_PARALLELISM = "Parallelism must be at least 1.";
+    /** The number of cells per side of a tile shape. */
+    public static final int SHAPE_SIDE = 16;
+    private static final int SHAPE_WORDS = SHAPE_SIDE * SHAPE_SIDE / Long.SIZE;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs an ImageUtils that works on the calling thread.
+     */
+    public ImageUtils() {
+        this(SEQUENTIAL);
+    }
+
+    /**
+     * Constructs an ImageUtils that splits its work over the given number of threads.
+     *
+     * @param parallelism The degree of parallelism, 1 for sequential work.
+     */
+    public ImageUtils(int parallelism) {
+        if (parallelism < SEQUENTIAL) {
+            throw new IllegalArgumentException(ILLEGAL_PARALLELISM);
+        }
+        this.pool = parallelism == SEQUENTIAL ? null : new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Constructs an ImageUtils that runs its work on the given pool.
+     *
+     * @param pool The pool to run on.
+     */
+    public ImageUtils(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Retrieves the degree of parallelism of this ImageUtils.
+     *
+     * @return The number of threads work is split over.
+     */
+    public int getParallelism() {
+        return pool == null ? SEQUENTIAL : pool.getParallelism();
+    }
+
+    /**
+     * Retrieves the pool work is run on.
+     *
+     * @return The pool, or null when work runs on the calling thread.
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
 
     /**
      * Divides the given image into a grid of sub-images with the specified resolution.
@@ -24,78 +76,319 @@ public class ImageUtils {
      * @return A 2D array of sub-images.
      */
     public Image[][] divideImage(Image image, int resolution) {
+        try (StageTimer timer = PipelineMetrics.start(Stage.TILING)) {
+            timer.cells((long) resolution * resolution);
+            return divide(image, resolution);
+        }
+    }
+
+    private Image[][] divide(Image image, int resolution) {
         final int rows = image.getHeight() / resolution;
         final int cols = image.getWidth() / resolution;
 
         Image[][] subImages = new Image[resolution][resolution];
 
-        for (int i = 0; i < resolution; i++) {
-            for (int j = 0; j < resolution; j++) {
-                final int startY = i * rows;
-                final int startX = j * cols;
-                Color[][] pixelArray = new Color[rows][cols];
+        RowBands.forEach(pool, resolution, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < resolution; j++) {
+                    final int startY = i * rows;
+                    final int startX = j * cols;
+                    int[] pixels = new int[rows * cols];
 
-                for (int y = 0; y < rows; y++) {
-                    for (int x = 0; x < cols; x++) {
-                        pixelArray[y][x] = image.getPixel(startY + y, startX + x);
+                    for (int y = 0; y < rows; y++) {
+                        for (int x = 0; x < cols; x++) {
+                            pixels[y * cols + x] = image.getPixel(startX + x, startY + y);
+                        }
                     }
-                }
 
-                subImages[i][j] = new Image(pixelArray, rows, cols);
+                    subImages[i][j] = new Image(pixels, cols, rows);
+                }
             }
-        }
+        });
 
         return subImages;
     }
 
     /**
-     * Calculates the brightness of each sub-image in the provided array of images.
-     * Caches the calculated brightness values for future use.
+     * Calculates the brightness of each tile of a resolution x resolution grid over the image.
+     * Power-of-two resolutions are read from the image's brightness pyramid, which is built
+     * once, so moving between them never walks the pixels again. Any other resolution is
+     * answered in constant time per tile from the image's luminance table.
      *
      * @param img        The original image.
-     * @param images     The array of sub-images.
-     * @param resolution The resolution of the sub-images.
-     * @return A 2D array containing the brightness values of each sub-image.
+     * @param resolution The number of tiles per row and per column.
+     * @return A 2D array containing the brightness values of each tile.
      */
-    public double[][] calculateBrightness(Image img, Image[][] images, int resolution) {
-        if (img.getBrightnessCache().containsKey(resolution)) {
-            return img.getBrightnessCache().get(resolution);
+    public double[][] calculateBrightness(Image img, int resolution) {
+        try (StageTimer timer = PipelineMetrics.start(Stage.BRIGHTNESS)) {
+            timer.cells((long) resolution * resolution);
+            return squareBrightness(img, resolution);
+        }
+    }
+
+    private double[][] squareBrightness(Image img, int resolution) {
+        BrightnessPyramid pyramid = img.getBrightnessPyramid(pool);
+        if (pyramid.covers(resolution)) {
+            return pyramid.getBrightness(resolution);
         }
 
+        final int rows = img.getHeight() / resolution;
+        final int cols = img.getWidth() / resolution;
+        LuminanceTable table = img.getLuminanceTable(pool);
         double[][] brightnesses = new double[resolution][resolution];
 
-        for (int i = 0; i < resolution; i++) {
-            for (int j = 0; j < resolution; j++) {
-                brightnesses[i][j] = calculateSubImageBrightness(images[i][j]);
+        RowBands.forEach(pool, resolution, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < resolution; j++) {
+                    brightnesses[i][j] = table.meanBrightness(j * cols, i * rows, cols, rows);
+                }
             }
-        }
+        });
 
-        img.putBrightnessCache(resolution, brightnesses);
         return brightnesses;
     }
 
     /**
-     * Calculates the brightness of a sub-image.
+     * Calculates the brightness, the mean color and optionally the brightness variance of each
+     * tile of a resolution x resolution grid over the image, in a single pass over its pixels.
+     * The brightness is the one calculateBrightness answers for the same grid.
+     *
+     * @param img          The original image.
+     * @param resolution   The number of tiles per row and per column.
+     * @param withVariance Whether to compute the variance of the brightness.
+     * @return The statistics of each tile.
+     */
+    public TileStats calculateTileStats(Image img, int resolution, boolean withVariance) {
+        try (StageTimer timer = PipelineMetrics.start(Stage.BRIGHTNESS)) {
+            timer.cells((long) resolution * resolution);
+            return TileStats.of(img, gridEdges(img.getWidth() / resolution, resolution),
+                    gridEdges(img.getHeight() / resolution, resolution), withVariance, pool);
+        }
+    }
+
+    /**
+     * Calculates the brightness, the mean color and optionally the brightness variance of each
+     * tile of the aspect-correct grid calculateBrightness uses, in a single pass over the pixels.
      *
-     * @param image The sub-image.
-     * @return The brightness value of the sub-image.
+     * @param img          The original image.
+     * @param columns      The requested number of columns.
+     * @param glyphAspect  The height of an output glyph divided by its width.
+     * @param withVariance Whether to compute the variance of the brightness.
+     * @return The statistics of each tile.
      */
-    private double calculateSubImageBrightness(Image image) {
-        final int rows = image.getHeight();
-        final int cols = image.getWidth();
-        final int totalPixels = rows * cols;
-        double totalBrightness = MIN_PIXEL_VALUE;
+    public TileStats calculateTileStats(Image img, int columns, double glyphAspect, boolean withVariance) {
+        try (StageTimer timer = PipelineMetrics.start(Stage.BRIGHTNESS)) {
+            final int cols = columnsFor(img, columns);
+            final int rows = rowsFor(img, cols, glyphAspect);
+            timer.cells((long) rows * cols);
+            return TileStats.of(img, tileEdges(img.rasterX, img.rasterWidth, cols),
+                    tileEdges(img.rasterY, img.rasterHeight, rows), withVariance, pool);
+        }
+    }
 
-        for (int y = 0; y < rows; y++) {
-            for (int x = 0; x < cols; x++) {
-                Color pixelColor = image.getPixel(x, y);
-                double grayValue = pixelColor.getRed() * RED_WEIGHT + pixelColor.getGreen() *
-                        GREEN_WEIGHT + pixelColor.getBlue() * BLUE_WEIGHT;
-                totalBrightness += grayValue / MAX_PIXEL_VALUE; // Normalize to range 0-1
+    /**
+     * An action applied to the shape of each tile.
+     */
+    @FunctionalInterface
+    public interface ShapeAction {
+        /**
+         * Processes the shape of a tile: SHAPE_SIDE x SHAPE_SIDE cells, one bit each, row after
+         * row in four longs, set where the cell is at least as bright as the whole tile.
+         *
+         * @param row        The row of the tile.
+         * @param col        The column of the tile.
+         * @param brightness The mean brightness of the tile.
+         * @param word0      Cells 0 to 63.
+         * @param word1      Cells 64 to 127.
+         * @param word2      Cells 128 to 191.
+         * @param word3      Cells 192 to 255.
+         */
+        void accept(int row, int col, double brightness, long word0, long word1, long word2, long word3);
+    }
+
+    /**
+     * Computes the shape of each tile of a resolution x resolution grid over the image and
+     * hands it to the action, in row bands on the pool. The action may be called concurrently
+     * for different tiles. Nothing is allocated per tile.
+     *
+     * @param img        The original image.
+     * @param resolution The number of tiles per row and per column.
+     * @param action     The action to apply to each tile.
+     */
+    public void forEachTileShape(Image img, int resolution, ShapeAction action) {
+        forEachTileShape(img, gridEdges(img.getWidth() / resolution, resolution),
+                gridEdges(img.getHeight() / resolution, resolution), action);
+    }
+
+    /**
+     * Computes the shape of each tile of an aspect-correct grid over the image's raster, the
+     * same grid calculateBrightness uses, and hands it to the action, in row bands on the pool.
+     *
+     * @param img         The original image.
+     * @param columns     The number of tile columns.
+     * @param glyphAspect The height of an output glyph divided by its width.
+     * @param action      The action to apply to each tile.
+     */
+    public void forEachTileShape(Image img, int columns, double glyphAspect, ShapeAction action) {
+        final int cols = columnsFor(img, columns);
+        final int rows = rowsFor(img, cols, glyphAspect);
+        forEachTileShape(img, tileEdges(img.rasterX, img.rasterWidth, cols),
+                tileEdges(img.rasterY, img.rasterHeight, rows), action);
+    }
+
+    private void forEachTileShape(Image img, int[] xEdges, int[] yEdges, ShapeAction action) {
+        LuminanceTable table = img.getLuminanceTable(pool);
+        RowBands.forEach(pool, yEdges.length - 1, (from, to) -> {
+            long[] words = new long[SHAPE_WORDS];
+            int[] rowMasks = new int[SHAPE_SIDE];
+            for (int i = from; i < to; i++) {
+                int top = yEdges[i];
+                int tileHeight = yEdges[i + 1] - top;
+                // Tiles smaller than the shape repeat their pixels over several cells, so only
+                // the distinct cells are measured, and then spread over the shape.
+                int distinctRows = Math.min(SHAPE_SIDE, tileHeight);
+                for (int j = 0; j < xEdges.length - 1; j++) {
+                    int left = xEdges[j];
+                    int tileWidth = xEdges[j + 1] - left;
+                    int distinctCols = Math.min(SHAPE_SIDE, tileWidth);
+                    long tilePixels = (long) tileWidth * tileHeight;
+                    long tileSum = table.sum(left, top, tileWidth, tileHeight);
+                    double mean = (double) tileSum / tilePixels;
+                    for (int r = 0; r < distinctRows; r++) {
+                        int cellTop = top + r * tileHeight / distinctRows;
+                        int cellHeight = top + (r + 1) * tileHeight / distinctRows - cellTop;
+                        int mask = 0;
+                        for (int c = 0; c < distinctCols; c++) {
+                            int cellLeft = left + c * tileWidth / distinctCols;
+                            int cellWidth = left + (c + 1) * tileWidth / distinctCols - cellLeft;
+                            long cellSum = table.sum(cellLeft, cellTop, cellWidth, cellHeight);
+                            if (cellSum >= mean * cellWidth * cellHeight) {
+                                mask |= 1 << c;
+                            }
+                        }
+                        rowMasks[r] = distinctCols == SHAPE_SIDE ? mask : spread(mask, distinctCols);
+                    }
+                    Arrays.fill(words, 0);
+                    for (int cy = 0; cy < SHAPE_SIDE; cy++) {
+                        int bit = cy * SHAPE_SIDE;
+                        words[bit / Long.SIZE] |= (long) rowMasks[cy * distinctRows / SHAPE_SIDE] << (bit % Long.SIZE);
+                    }
+                    action.accept(i, j, LuminanceTable.toBrightness(tileSum, tilePixels),
+                            words[0], words[1], words[2], words[3]);
+                }
             }
+        });
+    }
+
+    /**
+     * Spreads a row of distinct cells over the SHAPE_SIDE cells of a shape row.
+     *
+     * @param mask  The bits of the distinct cells.
+     * @param count The number of distinct cells, less than SHAPE_SIDE.
+     * @return The bits of the shape row.
+     */
+    private static int spread(int mask, int count) {
+        int spread = 0;
+        for (int cx = 0; cx < SHAPE_SIDE; cx++) {
+            spread |= (mask >>> (cx * count / SHAPE_SIDE) & 1) << cx;
         }
+        return spread;
+    }
 
-        // Calculate average brightness for the sub-image
-        return totalBrightness / totalPixels;
+    /**
+     * Computes the edges of count tiles of the same size, from 0.
+     *
+     * @param size  The size of a tile.
+     * @param count The number of tiles.
+     * @return The count + 1 tile edges.
+     */
+    private static int[] gridEdges(int size, int count) {
+        int[] edges = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            edges[i] = i * size;
+        }
+        return edges;
+    }
+
+    /**
+     * Computes how many tile columns an aspect-correct grid asked for the given number of
+     * columns has: one per column, but no more than the width of the image's raster.
+     *
+     * @param img     The image.
+     * @param columns The number of columns asked for.
+     * @return The number of tile columns.
+     */
+    public static int columnsFor(Image img, int columns) {
+        return Math.max(1, Math.min(img.rasterWidth, columns));
+    }
+
+    /**
+     * Computes how many tile rows an aspect-correct grid of the given column count needs, so that
+     * each tile, once drawn as a glyph of the given aspect ratio, keeps the image's proportions.
+     *
+     * @param img         The image.
+     * @param columns     The number of tile columns.
+     * @param glyphAspect The height of an output glyph divided by its width.
+     * @return The number of tile rows, at least 1 and at most the height of the image's raster.
+     */
+    public static int rowsFor(Image img, int columns, double glyphAspect) {
+        int rows = (int) Math.round((double) columns * img.rasterHeight / img.rasterWidth / glyphAspect);
+        return Math.max(1, Math.min(img.rasterHeight, rows));
+    }
+
+    /**
+     * Calculates the brightness of each tile of an aspect-correct grid over the image's raster,
+     * ignoring any padding. The grid has the given number of columns and as many rows as
+     * rowsFor returns. Tile edges are placed at floor(i * size / count), which spreads the
+     * remainder of an uneven division over the tiles, so every pixel belongs to exactly one tile.
+     *
+     * @param img         The original image.
+     * @param columns     The number of tile columns.
+     * @param glyphAspect The height of an output glyph divided by its width.
+     * @return A 2D array containing the brightness values of each tile.
+     */
+    public double[][] calculateBrightness(Image img, int columns, double glyphAspect) {
+        try (StageTimer timer = PipelineMetrics.start(Stage.BRIGHTNESS)) {
+            double[][] brightnesses = aspectBrightness(img, columns, glyphAspect);
+            timer.cells((long) brightnesses.length * brightnesses[0].length);
+            return brightnesses;
+        }
+    }
+
+    private double[][] aspectBrightness(Image img, int columns, double glyphAspect) {
+        final int cols = columnsFor(img, columns);
+        final int rows = rowsFor(img, cols, glyphAspect);
+        final int[] xEdges = tileEdges(img.rasterX, img.rasterWidth, cols);
+        final int[] yEdges = tileEdges(img.rasterY, img.rasterHeight, rows);
+        LuminanceTable table = img.getLuminanceTable(pool);
+        double[][] brightnesses = new double[rows][cols];
+
+        RowBands.forEach(pool, rows, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int tileHeight = yEdges[i + 1] - yEdges[i];
+                for (int j = 0; j < cols; j++) {
+                    brightnesses[i][j] = table.meanBrightness(xEdges[j], yEdges[i],
+                            xEdges[j + 1] - xEdges[j], tileHeight);
+                }
+            }
+        });
+
+        return brightnesses;
+    }
+
+    /**
+     * Computes the edges of count tiles spread over a span of pixels.
+     *
+     * @param start The first pixel of the span.
+     * @param size  The number of pixels in the span.
+     * @param count The number of tiles, at most size.
+     * @return The count + 1 tile edges, from start to start + size.
+     */
+    private static int[] tileEdges(int start, int size, int count) {
+        int[] edges = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            edges[i] = start + (int) ((long) i * size / count);
+        }
+        return edges;
     }
 }
@@ -0,0 +1,240 @@
+package image;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A summed-area table of the luminance of an image.
+ * Built once per image in a single pass, it answers the mean brightness of any
+ * rectangle of pixels in constant time, whatever the size of the rectangle.
+ * Luminance is kept in fixed point (weights scaled to integers) so sums are exact.
+ * Only the raster of the image is indexed; padding around it is added analytically,
+ * and a rectangle made only of padding never touches the table.
+ * Rows of pixels are reduced with SIMD through the jdk.incubator.vector module when the
+ * JVM was started with it (--add-modules jdk.incubator.vector) and the vector source root was
+ * compiled in, and one pixel at a time otherwise; both paths use the same integer arithmetic,
+ * so their sums are identical.
+ */
+public class LuminanceTable {
+
+    // Luminance weights, scaled so that they sum to LUMA_SCALE.
+    static final int RED_WEIGHT = 2126;
+    static final int GREEN_WEIGHT = 7152;
+    static final int BLUE_WEIGHT = 722;
+    private static final double LUMA_SCALE = 10000.0;
+    private static final double MAX_PIXEL_VALUE = 255.0;
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_PROPERTY = "ascii_art.vector";
+    // Compiled from the vector source root, only that root needs the incubating module.
+    private static final String VECTOR_REDUCER = "image.VectorLuminance";
+    // Chosen once at startup, null for the scalar path; -Dascii_art.vector=false forces it.
+    private static final RowReducer VECTOR = loadVectorReducer();
+
+    private final long[] sums;
+    private final int stride;
+    private final int width;
+    private final int height;
+    private final int rasterX;
+    private final int rasterY;
+    private final int rasterWidth;
+    private final int rasterHeight;
+    private final long paddingLuminance;
+
+    /**
+     * Builds the summed-area table of the given image on the calling thread.
+     *
+     * @param image The image to index.
+     */
+    public LuminanceTable(Image image) {
+        this(image, null);
+    }
+
+    /**
+     * Builds the summed-area table of the given image.
+     * The table is built in two passes, a prefix sum along each row and then an
+     * accumulation down each column, and each pass is split into bands on the pool.
+     *
+     * @param image The image to index.
+     * @param pool  The pool to build on, or null to build on the calling thread.
+     */
+    public LuminanceTable(Image image, ForkJoinPool pool) {
+        width = image.getWidth();
+        height = image.getHeight();
+        rasterX = image.rasterX;
+        rasterY = image.rasterY;
+        rasterWidth = image.rasterWidth;
+        rasterHeight = image.rasterHeight;
+        paddingLuminance = luminance(image.paddingRgb);
+        stride = rasterWidth + 1;
+        // Row 0 and column 0 are kept at zero so lookups need no bound checks.
+        sums = new long[stride * (rasterHeight + 1)];
+        int[] pixels = image.pixels;
+        RowBands.forEach(pool, rasterHeight, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                long rowSum = 0;
+                int src = y * rasterWidth;
+                int dst = (y + 1) * stride + 1;
+                for (int x = 0; x < rasterWidth; x++) {
+                    rowSum += luminance(pixels[src + x]);
+                    sums[dst + x] = rowSum;
+                }
+            }
+        });
+        // The second pass runs down the image, so its bands are ranges of columns.
+        RowBands.forEach(pool, rasterWidth, (from, to) -> {
+            for (int y = 1; y < rasterHeight; y++) {
+                int above = y * stride + 1;
+                int dst = above + stride;
+                for (int x = from; x < to; x++) {
+                    sums[dst + x] += sums[above + x];
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes the fixed point luminance of a packed ARGB pixel.
+     *
+     * @param argb The packed ARGB value.
+     * @return The luminance, between 0 and 255 * 10000.
+     */
+    static long luminance(int argb) {
+        return Image.red(argb) * (long) RED_WEIGHT + Image.green(argb) * (long) GREEN_WEIGHT +
+                Image.blue(argb) * (long) BLUE_WEIGHT;
+    }
+
+    /**
+     * Adds the fixed point luminance of a row of packed ARGB pixels to per-column sums,
+     * with SIMD when available. Each column sum must stay below 2^31, which holds for up to
+     * TileRowReducer.FLUSH_ROWS rows.
+     *
+     * @param pixels  The packed ARGB pixels.
+     * @param offset  The first pixel of the row.
+     * @param columns The per-column sums, one per pixel of the row.
+     * @param count   The number of pixels in the row.
+     */
+    static void accumulateRow(int[] pixels, int offset, int[] columns, int count) {
+        if (VECTOR != null) {
+            VECTOR.accumulateRow(pixels, offset, columns, count);
+            return;
+        }
+        for (int x = 0; x < count; x++) {
+            columns[x] += (int) luminance(pixels[offset + x]);
+        }
+    }
+
+    /**
+     * Checks whether rows of pixels are reduced with SIMD.
+     *
+     * @return true if the Vector API is in use.
+     */
+    public static boolean isVectorized() {
+        return VECTOR != null;
+    }
+
+    /**
+     * Loads the SIMD reduction, if it is enabled, the module is in the boot layer and the
+     * vector source root was compiled in.
+     *
+     * @return The SIMD reduction, or null to reduce one pixel at a time.
+     */
+    private static RowReducer loadVectorReducer() {
+        String setting = System.getProperty(VECTOR_PROPERTY);
+        if (setting != null && !Boolean.parseBoolean(setting)) {
+            return null;
+        }
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            return null;
+        }
+        try {
+            return (RowReducer) Class.forName(VECTOR_REDUCER).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // The vector source root was not compiled in.
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves the luminance sum of a rectangle of pixels, padding included.
+     *
+     * @param x      The left column of the rectangle.
+     * @param y      The top row of the rectangle.
+     * @param width  The width of the rectangle.
+     * @param height The height of the rectangle.
+     * @return The fixed point luminance sum of the rectangle.
+     */
+    public long sum(int x, int y, int width, int height) {
+        // Clip the rectangle to the raster, in raster coordinates.
+        int left = Math.max(x, rasterX) - rasterX;
+        int right = Math.min(x + width, rasterX + rasterWidth) - rasterX;
+        int upper = Math.max(y, rasterY) - rasterY;
+        int lower = Math.min(y + height, rasterY + rasterHeight) - rasterY;
+        long padding = (long) width * height;
+        if (left >= right || upper >= lower) {
+            return padding * paddingLuminance;
+        }
+        padding -= (long) (right - left) * (lower - upper);
+        int top = upper * stride;
+        int bottom = lower * stride;
+        return sums[bottom + right] - sums[bottom + left] - sums[top + right] + sums[top + left] +
+                padding * paddingLuminance;
+    }
+
+    /**
+     * Retrieves the mean brightness of a rectangle of pixels.
+     *
+     * @param x      The left column of the rectangle.
+     * @param y      The top row of the rectangle.
+     * @param width  The width of the rectangle.
+     * @param height The height of the rectangle.
+     * @return The mean brightness of the rectangle, normalized to the range 0-1.
+     */
+    public double meanBrightness(int x, int y, int width, int height) {
+        return toBrightness(sum(x, y, width, height), (long) width * height);
+    }
+
+    /**
+     * Converts a fixed point luminance sum into a mean brightness.
+     *
+     * @param sum    The fixed point luminance sum.
+     * @param pixels The number of pixels summed.
+     * @return The mean brightness, normalized to the range 0-1.
+     */
+    static double toBrightness(long sum, long pixels) {
+        return sum / (LUMA_SCALE * MAX_PIXEL_VALUE * pixels);
+    }
+
+    /**
+     * Retrieves the width of the indexed image.
+     *
+     * @return The width of the indexed image.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Retrieves the height of the indexed image.
+     *
+     * @return The height of the indexed image.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Adds the fixed point luminance of rows of packed ARGB pixels to per-column sums.
+     * Implemented outside this source root by the SIMD reduction.
+     */
+    interface RowReducer {
+
+        /**
+         * Adds the fixed point luminance of a row of packed ARGB pixels to per-column sums.
+         *
+         * @param pixels  The packed ARGB pixels.
+         * @param offset  The first pixel of the row.
+         * @param columns The per-column sums, one per pixel of the row.
+         * @param count   The number of pixels in the row.
+         */
+        void accumulateRow(int[] pixels, int offset, int[] columns, int count);
+    }
+}
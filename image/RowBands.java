@@ -0,0 +1,77 @@
+package image;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a range of rows into bands and runs them on a fork-join pool.
+ * Every band is processed by exactly the same code as the sequential path,
+ * so the results do not depend on the degree of parallelism.
+ */
+class RowBands {
+
+    // How many bands to aim for per worker, to even out uneven bands.
+    private static final int BANDS_PER_WORKER = 4;
+
+    /**
+     * An action applied to the rows [from, to) of a band.
+     */
+    @FunctionalInterface
+    interface BandAction {
+        /**
+         * Processes a band of rows.
+         *
+         * @param from The first row of the band, inclusive.
+         * @param to   The last row of the band, exclusive.
+         */
+        void run(int from, int to);
+    }
+
+    private RowBands() {
+    }
+
+    /**
+     * Runs the action over the rows [0, rows), split into bands.
+     *
+     * @param pool   The pool to run the bands on, or null to run on the calling thread.
+     * @param rows   The number of rows.
+     * @param action The action to apply to each band.
+     */
+    static void forEach(ForkJoinPool pool, int rows, BandAction action) {
+        if (pool == null || pool.getParallelism() == 1 || rows < 2) {
+            action.run(0, rows);
+            return;
+        }
+        int grain = Math.max(1, rows / (pool.getParallelism() * BANDS_PER_WORKER));
+        pool.invoke(new BandTask(action, 0, rows, grain));
+    }
+
+    /**
+     * Recursively halves a row range until it is no larger than the grain.
+     */
+    private static class BandTask extends RecursiveAction {
+        // Tasks are never serialized, but RecursiveAction is Serializable.
+        private static final long serialVersionUID = 1L;
+        private final BandAction action;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        BandTask(BandAction action, int from, int to, int grain) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                action.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BandTask(action, from, mid, grain), new BandTask(action, mid, to, grain));
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package image;
+
+import javax.imageio.ImageReader;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Decodes the rows of an image top to bottom in a single pass of its reader, handing each row
+ * over as soon as the reader reports it. The reader decodes into an image whose raster holds
+ * only a window of rows, reused as a ring, so the file is decoded once and memory is the window,
+ * whatever the height of the image.
+ * This needs a reader that writes rows in order, in one pass, and reports each one before it
+ * writes a window further down, as the JPEG, PNG and GIF readers do for images that are
+ * neither interlaced nor progressive. Any other reader is aborted, and the caller falls back;
+ * so does a reader that only writes into the data buffers of the JDK, as the BMP one does.
+ */
+final class RowStream implements IIOReadUpdateListener {
+
+    private static final int RGB_BANDS = 3;
+    private static final int OPAQUE = 0xFF000000;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+
+    /**
+     * An action applied to each row of the image, in order.
+     */
+    @FunctionalInterface
+    interface RowAction {
+        /**
+         * Processes a row. The pixels are only valid until the action returns.
+         *
+         * @param pixels The packed ARGB pixels of the row.
+         * @param y      The row of the image.
+         */
+        void run(int[] pixels, int y);
+    }
+
+    private final ImageReader reader;
+    private final RowWindow window;
+    private final BufferedImage image;
+    private final RowAction action;
+    private final int[] row;
+    private final int height;
+    // The offsets of the red, green and blue bytes of 8-bit RGB pixels, which are read straight
+    // from the window, or null to read pixels through the color model.
+    private final int[] rgbOffsets;
+    private final int pixelStride;
+    private int nextRow;
+    private int firstPass = -1;
+    private boolean sequential = true;
+
+    private RowStream(ImageReader reader, RowWindow window, BufferedImage image, RowAction action,
+                      int width, int height) {
+        this.reader = reader;
+        this.window = window;
+        this.image = image;
+        this.action = action;
+        this.row = new int[width];
+        this.height = height;
+        SampleModel model = image.getSampleModel();
+        if (isByteRgb(model, image.getColorModel())) {
+            rgbOffsets = ((PixelInterleavedSampleModel) model).getBandOffsets();
+            pixelStride = ((PixelInterleavedSampleModel) model).getPixelStride();
+        } else {
+            rgbOffsets = null;
+            pixelStride = 0;
+        }
+    }
+
+    /**
+     * Decodes the first image of a reader and runs the action over each of its rows, in order.
+     * When the reader does not decode the image row after row, it is aborted and false is
+     * returned: the rows already handed over must then be discarded, and the input of the reader
+     * is left at an unknown position.
+     *
+     * @param reader       The reader, its input set.
+     * @param windowPixels About how many pixels the window of rows holds.
+     * @param action       The action to run over each row.
+     * @return Whether every row was handed over, in order, from a single pass.
+     * @throws IOException If the image cannot be decoded.
+     */
+    static boolean forEach(ImageReader reader, int windowPixels, RowAction action) throws IOException {
+        int width = reader.getWidth(ImageDecoder.FIRST_IMAGE);
+        int height = reader.getHeight(ImageDecoder.FIRST_IMAGE);
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(ImageDecoder.FIRST_IMAGE);
+        if (!types.hasNext()) {
+            return false;
+        }
+        ImageTypeSpecifier type = types.next();
+        BufferedImage image;
+        RowWindow window;
+        try {
+            SampleModel model = type.getSampleModel(width, height);
+            int stride = scanlineStride(model);
+            if (stride <= 0 || model.getDataType() > DataBuffer.TYPE_INT) {
+                return false;
+            }
+            int windowRows = Math.min(height, Math.max(1, windowPixels / width));
+            window = new RowWindow(model.getDataType(), banks(model), windowRows * stride, stride);
+            image = new BufferedImage(type.getColorModel(), Raster.createWritableRaster(model, window, null),
+                    false, null);
+        } catch (IllegalArgumentException e) {
+            // The image is too large for a sample model of its own.
+            return false;
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(image);
+        RowStream stream = new RowStream(reader, window, image, action, width, height);
+        reader.addIIOReadUpdateListener(stream);
+        try {
+            reader.read(ImageDecoder.FIRST_IMAGE, param);
+        } catch (ClassCastException e) {
+            // Some readers, such as the BMP one, write straight into the standard data buffers.
+            return false;
+        } finally {
+            reader.removeIIOReadUpdateListener(stream);
+        }
+        return stream.sequential && !window.overrun && stream.nextRow == height;
+    }
+
+    @Override
+    public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                            int minX, int minY, int periodX, int periodY, int[] bands) {
+        // A second pass refines rows already handed over, an interlaced one skips rows.
+        if (firstPass == -1) {
+            firstPass = pass;
+        }
+        if (pass != firstPass || periodY > 1) {
+            stop();
+        }
+    }
+
+    @Override
+    public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width,
+                            int height, int periodX, int periodY, int[] bands) {
+        if (!sequential) {
+            return;
+        }
+        if (window.overrun || periodY > 1 || minY > nextRow || minY + height <= nextRow) {
+            stop();
+            return;
+        }
+        int end = Math.min(this.height, minY + height);
+        while (nextRow < end) {
+            if (rgbOffsets != null) {
+                readRgbRow();
+            } else {
+                image.getRGB(0, nextRow, row.length, 1, row, 0, row.length);
+            }
+            action.run(row, nextRow);
+            window.advance();
+            nextRow++;
+        }
+    }
+
+    @Override
+    public void passComplete(ImageReader source, BufferedImage theImage) {
+    }
+
+    @Override
+    public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+                                     int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+    }
+
+    @Override
+    public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width,
+                                int height, int periodX, int periodY, int[] bands) {
+    }
+
+    @Override
+    public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+    }
+
+    /**
+     * Packs the first row of the window, made of 8-bit RGB samples, into ARGB pixels, exactly
+     * as the sRGB color model would.
+     */
+    private void readRgbRow() {
+        int[] samples = window.banks[0];
+        int red = rgbOffsets[0];
+        int green = rgbOffsets[1];
+        int blue = rgbOffsets[2];
+        for (int x = 0, i = window.head; x < row.length; x++, i += pixelStride) {
+            row[x] = OPAQUE | (samples[i + red] & BYTE_MASK) << RED_SHIFT |
+                    (samples[i + green] & BYTE_MASK) << GREEN_SHIFT | samples[i + blue] & BYTE_MASK;
+        }
+    }
+
+    private static boolean isByteRgb(SampleModel model, ColorModel colors) {
+        return model instanceof PixelInterleavedSampleModel && model.getDataType() == DataBuffer.TYPE_BYTE &&
+                model.getNumBands() == RGB_BANDS && colors instanceof ComponentColorModel &&
+                !colors.hasAlpha() && colors.getColorSpace().isCS_sRGB();
+    }
+
+    private void stop() {
+        sequential = false;
+        reader.abort();
+    }
+
+    /**
+     * Finds how many data elements apart the rows of a sample model are.
+     *
+     * @param model The sample model.
+     * @return The scanline stride, or 0 for a sample model without one.
+     */
+    private static int scanlineStride(SampleModel model) {
+        if (model instanceof ComponentSampleModel) {
+            return ((ComponentSampleModel) model).getScanlineStride();
+        }
+        if (model instanceof SinglePixelPackedSampleModel) {
+            return ((SinglePixelPackedSampleModel) model).getScanlineStride();
+        }
+        if (model instanceof MultiPixelPackedSampleModel) {
+            return ((MultiPixelPackedSampleModel) model).getScanlineStride();
+        }
+        return 0;
+    }
+
+    private static int banks(SampleModel model) {
+        int banks = 1;
+        if (model instanceof ComponentSampleModel) {
+            for (int bank : ((ComponentSampleModel) model).getBankIndices()) {
+                banks = Math.max(banks, bank + 1);
+            }
+        }
+        return banks;
+    }
+
+    /**
+     * A data buffer that holds a window of consecutive rows of a larger raster, as a ring.
+     * Element indices are those of the whole raster; an element outside the window marks the
+     * buffer as overrun instead. Indices may wrap past Integer.MAX_VALUE, only their distance
+     * to the window matters.
+     */
+    private static final class RowWindow extends DataBuffer {
+        private final int[][] banks;
+        private final int stride;
+        // The raster index of the first element of the window, and where it sits in the ring.
+        private int start;
+        private int head;
+        private boolean overrun;
+
+        RowWindow(int dataType, int numBanks, int size, int stride) {
+            super(dataType, size, numBanks);
+            this.banks = new int[numBanks][size];
+            this.stride = stride;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return banks[bank][slot(i)];
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            banks[bank][slot(i)] = val;
+        }
+
+        /**
+         * Slides the window one row down, dropping its first row, which starts at head.
+         */
+        void advance() {
+            start += stride;
+            head += stride;
+            if (head >= size) {
+                head -= size;
+            }
+        }
+
+        private int slot(int i) {
+            int offset = i - start;
+            if (offset < 0 || offset >= size) {
+                overrun = true;
+                return 0;
+            }
+            int slot = head + offset;
+            return slot >= size ? slot - size : slot;
+        }
+    }
+}
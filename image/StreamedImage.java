@@ -0,0 +1,211 @@
+package image;
+
+import pipeline_metrics.PipelineMetrics;
+import pipeline_metrics.Stage;
+import pipeline_metrics.StageTimer;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An image too large to hold in memory, rendered straight from its file.
+ * The file is decoded once, top to bottom, through a RowStream, and each row is reduced into
+ * per-tile luminance sums as soon as it is decoded, so peak memory is a window of rows plus the
+ * tile grid. The tile grid is the one an ImagePad of the same file would have: the image is
+ * centered in white padding up to the next powers of two, and the padding is added analytically.
+ * The first square grid the pyramid covers streams the file at the pyramid's finest level, so
+ * every other power-of-two resolution is then read without touching the file again.
+ * Interlaced and progressive files cannot be decoded row after row; they are read in horizontal
+ * strips through ImageReadParam.setSourceRegion instead, which decodes the rows above a strip
+ * again for each strip, costing time but not memory.
+ * A resolution beyond the padded height, as a wide panorama allows, gets tiles one pixel high,
+ * and the rows of tiles below the image are padding.
+ */
+public class StreamedImage {
+
+    // Each strip, or window of decoded rows, holds about this many pixels.
+    private static final int STRIP_PIXELS = 1 << 22;
+    private static final long PADDING_LUMINANCE = LuminanceTable.luminance(ImagePad.DEFAULT_PADDING_RGB);
+
+    private final String filename;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int width;
+    private final int height;
+    private BrightnessPyramid brightnessPyramid;
+
+    /**
+     * Constructs a StreamedImage over the specified file. Only the file header is read.
+     *
+     * @param filename The path to the image file.
+     * @throws IOException If the file cannot be read.
+     */
+    public StreamedImage(String filename) throws IOException {
+        this.filename = filename;
+        try (ImageInputStream in = ImageDecoder.open(filename)) {
+            ImageReader reader = ImageDecoder.readerFor(in, filename);
+            try {
+                sourceWidth = reader.getWidth(ImageDecoder.FIRST_IMAGE);
+                sourceHeight = reader.getHeight(ImageDecoder.FIRST_IMAGE);
+            } finally {
+                reader.dispose();
+            }
+        }
+        width = ImagePad.closestPowerOfTwo(sourceWidth);
+        height = ImagePad.closestPowerOfTwo(sourceHeight);
+    }
+
+    /**
+     * Retrieves the padded width of the image.
+     *
+     * @return The padded width of the image.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Retrieves the padded height of the image.
+     *
+     * @return The padded height of the image.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Calculates the brightness of each tile of a resolution x resolution grid over the image.
+     * Resolutions the brightness pyramid covers are read from it, streaming the file once to
+     * build it; any other resolution streams the file again.
+     *
+     * @param resolution The number of tiles per row and per column.
+     * @return A 2D array containing the brightness values of each tile.
+     * @throws IOException If the file cannot be read.
+     */
+    public double[][] calculateBrightness(int resolution) throws IOException {
+        try (StageTimer timer = PipelineMetrics.start(Stage.BRIGHTNESS)) {
+            timer.cells((long) resolution * resolution);
+            return squareBrightness(resolution);
+        }
+    }
+
+    private double[][] squareBrightness(int resolution) throws IOException {
+        int finest = BrightnessPyramid.finestResolution(width, height);
+        if (resolution <= finest && Integer.bitCount(resolution) == 1) {
+            return getBrightnessPyramid().getBrightness(resolution);
+        }
+        long[] sums = streamSums(resolution);
+        long tilePixels = (long) tileSize(height, resolution) * tileSize(width, resolution);
+        double[][] brightnesses = new double[resolution][resolution];
+        for (int i = 0; i < resolution; i++) {
+            for (int j = 0; j < resolution; j++) {
+                brightnesses[i][j] = LuminanceTable.toBrightness(sums[i * resolution + j], tilePixels);
+            }
+        }
+        return brightnesses;
+    }
+
+    /**
+     * Retrieves the brightness pyramid of the image, streaming the file to build it on first use.
+     *
+     * @return The brightness pyramid of the image.
+     * @throws IOException If the file cannot be read.
+     */
+    public synchronized BrightnessPyramid getBrightnessPyramid() throws IOException {
+        if (brightnessPyramid == null) {
+            int finest = BrightnessPyramid.finestResolution(width, height);
+            brightnessPyramid = new BrightnessPyramid(streamSums(finest), finest, width, height);
+        }
+        return brightnessPyramid;
+    }
+
+    /**
+     * Finds the side of a tile along one dimension of the padded image.
+     *
+     * @param extent     The padded width or height.
+     * @param resolution The number of tiles along it.
+     * @return The side of a tile, at least 1 pixel.
+     */
+    private static int tileSize(int extent, int resolution) {
+        return Math.max(1, extent / resolution);
+    }
+
+    /**
+     * Streams the file once and sums the luminance of each tile of a resolution x resolution
+     * grid, padding included.
+     *
+     * @param resolution The number of tiles per row and per column.
+     * @return The tile sums, row after row.
+     * @throws IOException If the file cannot be read.
+     */
+    private long[] streamSums(int resolution) throws IOException {
+        final int rows = tileSize(height, resolution);
+        final int cols = tileSize(width, resolution);
+        final int padLeft = (width - sourceWidth) / 2;
+        final int padTop = (height - sourceHeight) / 2;
+        long[] sums = new long[resolution * resolution];
+        TileRowReducer reducer = new TileRowReducer(sums, resolution, cols, rows, padLeft, padTop, sourceWidth);
+        if (!readRows(reducer)) {
+            // The rows handed over before the reader gave up are read again.
+            Arrays.fill(sums, 0);
+            reducer = new TileRowReducer(sums, resolution, cols, rows, padLeft, padTop, sourceWidth);
+            readStrips(reducer);
+        }
+
+        reducer.flush();
+        BrightnessPyramid.addPadding(sums, resolution, cols, rows, padLeft, padTop,
+                sourceWidth, sourceHeight, PADDING_LUMINANCE);
+        return sums;
+    }
+
+    /**
+     * Decodes the file once, top to bottom, adding each row to a reducer as soon as it is decoded.
+     *
+     * @param reducer The reducer to add the rows to.
+     * @return Whether every row was added; if not, the reducer holds only some of them.
+     * @throws IOException If the file cannot be read.
+     */
+    private boolean readRows(TileRowReducer reducer) throws IOException {
+        try (ImageInputStream in = ImageDecoder.open(filename)) {
+            ImageReader reader = ImageDecoder.readerFor(in, filename);
+            try {
+                return RowStream.forEach(reader, STRIP_PIXELS, (pixels, y) -> reducer.addRow(pixels, 0, y));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reads the file in horizontal strips, adding the rows of each strip to a reducer.
+     *
+     * @param reducer The reducer to add the rows to.
+     * @throws IOException If the file cannot be read.
+     */
+    private void readStrips(TileRowReducer reducer) throws IOException {
+        int stripRows = Math.max(1, STRIP_PIXELS / sourceWidth);
+        int[] strip = new int[stripRows * sourceWidth];
+        try (ImageInputStream in = ImageDecoder.open(filename)) {
+            ImageReader reader = ImageDecoder.readerFor(in, filename);
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                for (int top = 0; top < sourceHeight; top += stripRows) {
+                    int stripHeight = Math.min(stripRows, sourceHeight - top);
+                    param.setSourceRegion(new Rectangle(0, top, sourceWidth, stripHeight));
+                    BufferedImage im = reader.read(ImageDecoder.FIRST_IMAGE, param);
+                    im.getRGB(0, 0, sourceWidth, stripHeight, strip, 0, sourceWidth);
+                    for (int y = 0; y < stripHeight; y++) {
+                        reducer.addRow(strip, y * sourceWidth, top + y);
+                    }
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package image;
+
+import java.util.Arrays;
+
+/**
+ * Reduces the rows of a raster into the luminance sums of the tiles of a square grid.
+ * Rows are first accumulated column by column, which runs whole rows through
+ * LuminanceTable.accumulateRow, and the columns are only folded into tiles once per
+ * tile row, so the per-pixel work never depends on how narrow the tiles are.
+ * Rows must be added in order, and padding is left to the caller.
+ */
+final class TileRowReducer {
+
+    // A column holds at most this many rows of luminance, at most 2,550,000 each,
+    // so it stays below 2^31.
+    static final int FLUSH_ROWS = 512;
+
+    private final long[] sums;
+    private final int resolution;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int rasterX;
+    private final int rasterY;
+    private final int[] columns;
+    private int tileRow = -1;
+    private int pendingRows;
+
+    /**
+     * Constructs a reducer into the given tile sums.
+     *
+     * @param sums        The tile sums, row after row, added to.
+     * @param resolution  The number of tiles per row and per column.
+     * @param tileWidth   The width of a tile.
+     * @param tileHeight  The height of a tile.
+     * @param rasterX     The column of the image the raster starts at.
+     * @param rasterY     The row of the image the raster starts at.
+     * @param rasterWidth The width of the raster.
+     */
+    TileRowReducer(long[] sums, int resolution, int tileWidth, int tileHeight, int rasterX, int rasterY,
+                   int rasterWidth) {
+        this.sums = sums;
+        this.resolution = resolution;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.rasterX = rasterX;
+        this.rasterY = rasterY;
+        this.columns = new int[rasterWidth];
+    }
+
+    /**
+     * Adds a row of the raster.
+     *
+     * @param pixels The packed ARGB pixels holding the row.
+     * @param offset The first pixel of the row.
+     * @param y      The row of the raster.
+     */
+    void addRow(int[] pixels, int offset, int y) {
+        int row = (y + rasterY) / tileHeight;
+        if (row != tileRow || pendingRows == FLUSH_ROWS) {
+            flush();
+            tileRow = row;
+        }
+        LuminanceTable.accumulateRow(pixels, offset, columns, columns.length);
+        pendingRows++;
+    }
+
+    /**
+     * Folds the accumulated columns into their tiles. Must be called after the last row.
+     */
+    void flush() {
+        if (pendingRows == 0) {
+            return;
+        }
+        int base = tileRow * resolution;
+        int x = 0;
+        while (x < columns.length) {
+            int tileCol = (x + rasterX) / tileWidth;
+            int end = Math.min(columns.length, (tileCol + 1) * tileWidth - rasterX);
+            long sum = 0;
+            for (int k = x; k < end; k++) {
+                sum += columns[k];
+            }
+            sums[base + tileCol] += sum;
+            x = end;
+        }
+        Arrays.fill(columns, 0);
+        pendingRows = 0;
+    }
+}
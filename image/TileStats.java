@@ -0,0 +1,278 @@
+package image;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The statistics of every tile of a grid over an image, reduced from the pixels in a single
+ * traversal: the mean brightness, the mean color and, optionally, the variance of the brightness.
+ * Each statistic is kept in its own primitive array, one entry per tile, row after row.
+ * Brightness is summed in the same fixed point as the LuminanceTable, so it is exactly the
+ * brightness calculateBrightness answers for the same grid.
+ */
+public final class TileStats {
+
+    // A column holds at most this many rows of luminance before it is folded into its tile,
+    // as in TileRowReducer.
+    private static final int FLUSH_ROWS = TileRowReducer.FLUSH_ROWS;
+    private static final String NO_VARIANCE = "The variance of these tiles was not computed.";
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+
+    private final int rows;
+    private final int columns;
+    private final double[] brightness;
+    private final int[] red;
+    private final int[] green;
+    private final int[] blue;
+    private final double[] variance;
+
+    private TileStats(int rows, int columns, boolean withVariance) {
+        this.rows = rows;
+        this.columns = columns;
+        int tiles = rows * columns;
+        brightness = new double[tiles];
+        red = new int[tiles];
+        green = new int[tiles];
+        blue = new int[tiles];
+        variance = withVariance ? new double[tiles] : null;
+    }
+
+    /**
+     * Reduces the tiles of a grid over the image. Rows of tiles are split into bands on the pool,
+     * and each band walks its pixels once, accumulating every statistic column by column before
+     * folding the columns into tiles, as TileRowReducer does for luminance alone.
+     *
+     * @param img          The image.
+     * @param xEdges       The columns the tiles start at, then the column the last one ends at.
+     * @param yEdges       The rows the tiles start at, then the row the last one ends at.
+     * @param withVariance Whether to compute the variance of the brightness.
+     * @param pool         The pool to reduce on, or null to reduce on the calling thread.
+     * @return The statistics of the tiles.
+     */
+    static TileStats of(Image img, int[] xEdges, int[] yEdges, boolean withVariance, ForkJoinPool pool) {
+        TileStats stats = new TileStats(yEdges.length - 1, xEdges.length - 1, withVariance);
+        RowBands.forEach(pool, stats.rows, (from, to) -> new Reducer(stats, img, xEdges, yEdges).run(from, to));
+        return stats;
+    }
+
+    /**
+     * Retrieves the number of rows of tiles.
+     *
+     * @return The number of rows.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Retrieves the number of columns of tiles.
+     *
+     * @return The number of columns.
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Retrieves the mean brightness of a tile.
+     *
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     * @return The mean brightness, normalized to the range 0-1.
+     */
+    public double getBrightness(int row, int col) {
+        return brightness[row * columns + col];
+    }
+
+    /**
+     * Retrieves the mean color of a tile.
+     *
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     * @return The mean color, packed as 0xRRGGBB.
+     */
+    public int getRgb(int row, int col) {
+        int tile = row * columns + col;
+        return red[tile] << RED_SHIFT | green[tile] << GREEN_SHIFT | blue[tile];
+    }
+
+    /**
+     * Checks whether the variance of the brightness was computed.
+     *
+     * @return true if getVariance may be called.
+     */
+    public boolean hasVariance() {
+        return variance != null;
+    }
+
+    /**
+     * Retrieves the variance of the brightness of the pixels of a tile.
+     *
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     * @return The variance, in squared normalized brightness.
+     * @throws IllegalStateException If the variance was not computed.
+     */
+    public double getVariance(int row, int col) {
+        if (variance == null) {
+            throw new IllegalStateException(NO_VARIANCE);
+        }
+        return variance[row * columns + col];
+    }
+
+    /**
+     * Copies the mean brightness of the tiles into a grid.
+     *
+     * @return The brightness of each tile.
+     */
+    public double[][] getBrightnessGrid() {
+        double[][] grid = new double[rows][columns];
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(brightness, i * columns, grid[i], 0, columns);
+        }
+        return grid;
+    }
+
+    /**
+     * Reduces a band of tile rows. Its buffers are allocated once per band and reused for every
+     * tile row of the band.
+     */
+    private static final class Reducer {
+        private final TileStats stats;
+        private final Image img;
+        private final int[] xEdges;
+        private final int[] yEdges;
+        // The raster columns covered by the grid.
+        private final int firstColumn;
+        private final int lastColumn;
+        private final int[] luminanceColumns;
+        private final int[] redColumns;
+        private final int[] greenColumns;
+        private final int[] blueColumns;
+        private final double[] squareColumns;
+        private final long[] luminanceSums;
+        private final long[] redSums;
+        private final long[] greenSums;
+        private final long[] blueSums;
+        private final double[] squareSums;
+
+        Reducer(TileStats stats, Image img, int[] xEdges, int[] yEdges) {
+            this.stats = stats;
+            this.img = img;
+            this.xEdges = xEdges;
+            this.yEdges = yEdges;
+            firstColumn = clamp(xEdges[0] - img.rasterX, img.rasterWidth);
+            lastColumn = clamp(xEdges[stats.columns] - img.rasterX, img.rasterWidth);
+            luminanceColumns = new int[img.rasterWidth];
+            redColumns = new int[img.rasterWidth];
+            greenColumns = new int[img.rasterWidth];
+            blueColumns = new int[img.rasterWidth];
+            squareColumns = stats.variance != null ? new double[img.rasterWidth] : null;
+            luminanceSums = new long[stats.columns];
+            redSums = new long[stats.columns];
+            greenSums = new long[stats.columns];
+            blueSums = new long[stats.columns];
+            squareSums = new double[stats.columns];
+        }
+
+        void run(int from, int to) {
+            for (int i = from; i < to; i++) {
+                int top = clamp(yEdges[i] - img.rasterY, img.rasterHeight);
+                int bottom = clamp(yEdges[i + 1] - img.rasterY, img.rasterHeight);
+                int pendingRows = 0;
+                for (int y = top; y < bottom; y++) {
+                    addRow(y * img.rasterWidth);
+                    if (++pendingRows == FLUSH_ROWS) {
+                        fold();
+                        pendingRows = 0;
+                    }
+                }
+                fold();
+                finish(i);
+            }
+        }
+
+        private void addRow(int offset) {
+            int[] pixels = img.pixels;
+            for (int x = firstColumn; x < lastColumn; x++) {
+                int argb = pixels[offset + x];
+                int r = Image.red(argb);
+                int g = Image.green(argb);
+                int b = Image.blue(argb);
+                int luminance = r * LuminanceTable.RED_WEIGHT + g * LuminanceTable.GREEN_WEIGHT +
+                        b * LuminanceTable.BLUE_WEIGHT;
+                luminanceColumns[x] += luminance;
+                redColumns[x] += r;
+                greenColumns[x] += g;
+                blueColumns[x] += b;
+                if (squareColumns != null) {
+                    squareColumns[x] += (double) luminance * luminance;
+                }
+            }
+        }
+
+        private void fold() {
+            for (int j = 0; j < stats.columns; j++) {
+                int left = clamp(xEdges[j] - img.rasterX, img.rasterWidth);
+                int right = clamp(xEdges[j + 1] - img.rasterX, img.rasterWidth);
+                for (int x = left; x < right; x++) {
+                    luminanceSums[j] += luminanceColumns[x];
+                    redSums[j] += redColumns[x];
+                    greenSums[j] += greenColumns[x];
+                    blueSums[j] += blueColumns[x];
+                    luminanceColumns[x] = 0;
+                    redColumns[x] = 0;
+                    greenColumns[x] = 0;
+                    blueColumns[x] = 0;
+                    if (squareColumns != null) {
+                        squareSums[j] += squareColumns[x];
+                        squareColumns[x] = 0;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds the padding each tile of a row covers, turns the sums into statistics and
+         * clears the sums for the next tile row.
+         */
+        private void finish(int i) {
+            int tileHeight = yEdges[i + 1] - yEdges[i];
+            int overlapHeight = clamp(yEdges[i + 1] - img.rasterY, img.rasterHeight) -
+                    clamp(yEdges[i] - img.rasterY, img.rasterHeight);
+            int padding = img.paddingRgb;
+            long paddingLuminance = LuminanceTable.luminance(padding);
+            double scale = LuminanceTable.toBrightness(1, 1);
+            for (int j = 0; j < stats.columns; j++) {
+                long pixels = (long) (xEdges[j + 1] - xEdges[j]) * tileHeight;
+                long paddingPixels = pixels - (long) overlapHeight * (clamp(xEdges[j + 1] - img.rasterX,
+                        img.rasterWidth) - clamp(xEdges[j] - img.rasterX, img.rasterWidth));
+                long luminance = luminanceSums[j] + paddingPixels * paddingLuminance;
+                int tile = i * stats.columns + j;
+                stats.brightness[tile] = LuminanceTable.toBrightness(luminance, pixels);
+                stats.red[tile] = mean(redSums[j] + paddingPixels * Image.red(padding), pixels);
+                stats.green[tile] = mean(greenSums[j] + paddingPixels * Image.green(padding), pixels);
+                stats.blue[tile] = mean(blueSums[j] + paddingPixels * Image.blue(padding), pixels);
+                if (stats.variance != null) {
+                    double meanSquare = (squareSums[j] + (double) paddingPixels * paddingLuminance *
+                            paddingLuminance) / pixels * scale * scale;
+                    double mean = stats.brightness[tile];
+                    stats.variance[tile] = Math.max(0, meanSquare - mean * mean);
+                }
+                luminanceSums[j] = 0;
+                redSums[j] = 0;
+                greenSums[j] = 0;
+                blueSums[j] = 0;
+                squareSums[j] = 0;
+            }
+        }
+
+        private static int mean(long sum, long pixels) {
+            return (int) ((sum + pixels / 2) / pixels);
+        }
+
+        private static int clamp(int value, int size) {
+            return Math.max(0, Math.min(size, value));
+        }
+    }
+}
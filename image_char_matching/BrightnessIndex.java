@@ -0,0 +1,184 @@
+package image_char_matching;
+
+import java.util.Arrays;
+
+/**
+ * An immutable lookup index from a brightness value to the character of closest brightness.
+ * Characters are kept as a primitive pair of arrays sorted by brightness, and a quantized
+ * table of buckets over the range 0-1 points at the answer for the start of each bucket,
+ * so a lookup is a table read followed by at most a few neighbour comparisons.
+ * When two characters are equally close, the one with the lowest char code wins.
+ * Being immutable, an index can be shared freely between threads.
+ */
+public final class BrightnessIndex {
+
+    private static final int LOOKUP_BUCKETS = 4096;
+    private static final char EMPTY_INDEX_CHAR = '0';
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final double[] brightnesses;
+    private final char[] chars;
+    private final int[] buckets;
+
+    /**
+     * Builds an index over the given characters.
+     *
+     * @param chars        The characters to index.
+     * @param brightnesses The normalized brightness of each character, at the same position.
+     * @param count        The number of characters to read from the arrays.
+     */
+    BrightnessIndex(char[] chars, double[] brightnesses, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> brightnesses[a] != brightnesses[b] ?
+                Double.compare(brightnesses[a], brightnesses[b]) : Character.compare(chars[a], chars[b]));
+
+        // Characters of equal brightness can never win over the lowest one among them.
+        double[] sortedBrightnesses = new double[count];
+        char[] sortedChars = new char[count];
+        int size = 0;
+        for (int i : order) {
+            if (size > 0 && sortedBrightnesses[size - 1] == brightnesses[i]) {
+                continue;
+            }
+            sortedBrightnesses[size] = brightnesses[i];
+            sortedChars[size] = chars[i];
+            size++;
+        }
+        this.brightnesses = Arrays.copyOf(sortedBrightnesses, size);
+        this.chars = Arrays.copyOf(sortedChars, size);
+
+        buckets = new int[LOOKUP_BUCKETS];
+        if (size > 0) {
+            for (int k = 0; k < LOOKUP_BUCKETS; k++) {
+                buckets[k] = binarySearch((double) k / LOOKUP_BUCKETS);
+            }
+        }
+    }
+
+    /**
+     * Gets the character of closest brightness through the quantized lookup table.
+     *
+     * @param brightness The brightness value.
+     * @return The character closest to the given brightness value.
+     */
+    public char lookup(double brightness) {
+        if (chars.length == 0) {
+            return EMPTY_INDEX_CHAR;
+        }
+        return chars[level(brightness)];
+    }
+
+    /**
+     * Gets the brightness level of closest brightness through the quantized lookup table.
+     * The index must not be empty.
+     *
+     * @param brightness The brightness value.
+     * @return The level closest to the given brightness value, between 0 and size() - 1.
+     */
+    public int level(double brightness) {
+        int bucket = (int) (brightness * LOOKUP_BUCKETS);
+        int index = buckets[Math.max(0, Math.min(LOOKUP_BUCKETS - 1, bucket))];
+        // The answer never decreases with brightness, so walk forward from the bucket start.
+        while (index + 1 < chars.length && isCloser(index + 1, index, brightness)) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Retrieves the character of a brightness level.
+     *
+     * @param level The level, between 0 and size() - 1.
+     * @return The character of the level.
+     */
+    public char charAt(int level) {
+        return chars[level];
+    }
+
+    /**
+     * Retrieves the normalized brightness of a brightness level.
+     *
+     * @param level The level, between 0 and size() - 1.
+     * @return The brightness of the level's character.
+     */
+    public double brightnessAt(int level) {
+        return brightnesses[level];
+    }
+
+    /**
+     * Gets the character of closest brightness through a binary search.
+     *
+     * @param brightness The brightness value.
+     * @return The character closest to the given brightness value.
+     */
+    public char search(double brightness) {
+        if (chars.length == 0) {
+            return EMPTY_INDEX_CHAR;
+        }
+        return chars[binarySearch(brightness)];
+    }
+
+    /**
+     * Retrieves the number of distinct brightness levels in the index.
+     *
+     * @return The number of distinct brightness levels.
+     */
+    public int size() {
+        return chars.length;
+    }
+
+    /**
+     * Computes a fingerprint of the index. Two indexes with the same fingerprint map every
+     * brightness to the same character, whatever characters they were built from.
+     *
+     * @return A 64-bit hash of the sorted brightnesses and characters.
+     */
+    public long fingerprint() {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < chars.length; i++) {
+            hash = (hash ^ Double.doubleToLongBits(brightnesses[i])) * FNV_PRIME;
+            hash = (hash ^ chars[i]) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Finds the position of the closest brightness by binary search.
+     *
+     * @param brightness The brightness value.
+     * @return The position of the closest character in the sorted arrays.
+     */
+    private int binarySearch(double brightness) {
+        int insertion = Arrays.binarySearch(brightnesses, brightness);
+        if (insertion >= 0) {
+            return insertion;
+        }
+        int above = -insertion - 1;
+        if (above == 0) {
+            return 0;
+        }
+        if (above == chars.length) {
+            return chars.length - 1;
+        }
+        return isCloser(above, above - 1, brightness) ? above : above - 1;
+    }
+
+    /**
+     * Checks whether one position is a better match than another for a brightness value.
+     *
+     * @param candidate  The position to check.
+     * @param current    The position to compare against.
+     * @param brightness The brightness value.
+     * @return true if the candidate is closer, or as close with a lower char code.
+     */
+    private boolean isCloser(int candidate, int current, double brightness) {
+        double candidateDiff = Math.abs(brightnesses[candidate] - brightness);
+        double currentDiff = Math.abs(brightnesses[current] - brightness);
+        return candidateDiff < currentDiff ||
+                (candidateDiff == currentDiff && chars[candidate] < chars[current]);
+    }
+}
@@ -16,7 +16,7 @@ import java.awt.image.BufferedImage;
 public class CharConverter {
     private static final double X_OFFSET_FACTOR = 0.2;
     private static final double Y_OFFSET_FACTOR = 0.75;
-    private static final String FONT_NAME = "Courier New";
+    public static final String FONT_NAME = "Courier New";
     public static final int DEFAULT_PIXEL_RESOLUTION = 16;
 
     /**
@@ -25,16 +25,86 @@ public class CharConverter {
      * whose dimension in pixels is specified.
      */
     public static boolean[][] convertToBoolArray(char c) {
-        BufferedImage img = getBufferedImage(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
-        boolean[][] matrix = new boolean[DEFAULT_PIXEL_RESOLUTION][DEFAULT_PIXEL_RESOLUTION];
-        for(int y = 0 ; y < DEFAULT_PIXEL_RESOLUTION ; y++) {
-            for(int x = 0 ; x < DEFAULT_PIXEL_RESOLUTION ; x++) {
+        return convertToBoolArray(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
+    }
+
+    /**
+     * Renders a given character in the given font to a square black&white image
+     * (2D array of booleans) of the given dimension in pixels.
+     *
+     * @param c             The character to be rendered.
+     * @param fontName      The name of the font to be used.
+     * @param pixelsPerRow  The size of the image in pixels (both width and height).
+     * @return              The rendered character.
+     */
+    public static boolean[][] convertToBoolArray(char c, String fontName, int pixelsPerRow) {
+        BufferedImage img = getBufferedImage(c, fontName, pixelsPerRow);
+        boolean[][] matrix = new boolean[pixelsPerRow][pixelsPerRow];
+        for(int y = 0 ; y < pixelsPerRow ; y++) {
+            for(int x = 0 ; x < pixelsPerRow ; x++) {
                 matrix[y][x] = img.getRGB(x, y) == 0; //is the color black
             }
         }
         return matrix;
     }
 
+    /**
+     * Renders a whole range of characters at once, drawing them side by side into a single
+     * glyph atlas with one font and one graphics context. Each glyph is clipped to its own
+     * cell, so the result is the same as rendering the characters one by one.
+     *
+     * @param first         The first character of the range.
+     * @param last          The last character of the range, inclusive.
+     * @param fontName      The name of the font to be used.
+     * @param pixelsPerRow  The size of each glyph in pixels (both width and height).
+     * @return              The rendered characters, indexed from the first character.
+     */
+    public static boolean[][][] convertRangeToBoolArrays(char first, char last, String fontName,
+                                                         int pixelsPerRow) {
+        int count = last - first + 1;
+        BufferedImage atlas = new BufferedImage(pixelsPerRow * count, pixelsPerRow,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics g = atlas.getGraphics();
+        g.setFont(new Font(fontName, Font.PLAIN, pixelsPerRow));
+        int xOffset = (int)Math.round(pixelsPerRow *X_OFFSET_FACTOR);
+        int yOffset = (int)Math.round(pixelsPerRow *Y_OFFSET_FACTOR);
+        for (int i = 0; i < count; i++) {
+            g.setClip(i * pixelsPerRow, 0, pixelsPerRow, pixelsPerRow);
+            g.drawString(Character.toString((char) (first + i)), i * pixelsPerRow + xOffset, yOffset);
+        }
+        g.dispose();
+
+        int[] pixels = atlas.getRGB(0, 0, atlas.getWidth(), pixelsPerRow, null, 0, atlas.getWidth());
+        boolean[][][] matrices = new boolean[count][pixelsPerRow][pixelsPerRow];
+        for (int i = 0; i < count; i++) {
+            for(int y = 0 ; y < pixelsPerRow ; y++) {
+                int row = y * atlas.getWidth() + i * pixelsPerRow;
+                for(int x = 0 ; x < pixelsPerRow ; x++) {
+                    matrices[i][y][x] = pixels[row + x] == 0; //is the color black
+                }
+            }
+        }
+        return matrices;
+    }
+
+    /**
+     * Checks which characters of a range the font has a glyph for, its fallback fonts included.
+     * A character the font cannot display would render as a missing-glyph box, or not at all.
+     *
+     * @param first    The first character of the range.
+     * @param last     The last character of the range, inclusive.
+     * @param fontName The name of the font to be used.
+     * @return         Whether each character can be displayed, indexed from the first character.
+     */
+    public static boolean[] canDisplayRange(char first, char last, String fontName) {
+        Font font = new Font(fontName, Font.PLAIN, DEFAULT_PIXEL_RESOLUTION);
+        boolean[] displayable = new boolean[last - first + 1];
+        for (int i = 0; i < displayable.length; i++) {
+            displayable[i] = font.canDisplay((char) (first + i));
+        }
+        return displayable;
+    }
+
     /**
      * Generates a BufferedImage of a character with the specified font and size.
      *
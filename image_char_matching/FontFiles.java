@@ -0,0 +1,102 @@
+package image_char_matching;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Describes the fonts installed for the JVM without loading any font class: the path, size and
+ * modification time of every file under the font and font configuration directories of the
+ * platform and of the JDK. Installing, updating or removing a font, or changing which font a
+ * name falls back on, changes the description. It is conservative, since any font change
+ * changes it, and it is taken once per process.
+ */
+final class FontFiles {
+
+    private static final String USER_HOME = System.getProperty("user.home");
+    // Directories that do not exist on a platform are skipped.
+    private static final String[][] FONT_DIRECTORIES = {
+            {System.getProperty("java.home"), "lib", "fonts"},
+            {"/usr/share/fonts"},
+            {"/usr/local/share/fonts"},
+            {"/etc/fonts"},
+            {USER_HOME, ".fonts"},
+            {USER_HOME, ".local", "share", "fonts"},
+            {"/Library/Fonts"},
+            {"/System/Library/Fonts"},
+            {USER_HOME, "Library", "Fonts"},
+            {System.getenv("WINDIR"), "Fonts"},
+            {System.getenv("LOCALAPPDATA"), "Microsoft", "Windows", "Fonts"},
+    };
+    private static final String DESCRIPTION_FORMAT = "%d:%x";
+    private static final String DESCRIPTION = scan();
+
+    private FontFiles() {
+    }
+
+    /**
+     * Retrieves the description of the installed fonts.
+     *
+     * @return The number of font files and a hash of their paths, sizes and modification times.
+     */
+    static String describe() {
+        return DESCRIPTION;
+    }
+
+    private static String scan() {
+        FileHasher hasher = new FileHasher();
+        for (Path directory : fontDirectories()) {
+            try {
+                Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, hasher);
+            } catch (IOException | RuntimeException e) {
+                // An unreadable directory simply does not contribute.
+            }
+        }
+        return String.format(DESCRIPTION_FORMAT, hasher.files, hasher.hash);
+    }
+
+    private static List<Path> fontDirectories() {
+        List<Path> directories = new ArrayList<>();
+        for (String[] names : FONT_DIRECTORIES) {
+            if (names[0] == null) {
+                continue;
+            }
+            Path directory = Paths.get(names[0], Arrays.copyOfRange(names, 1, names.length));
+            if (Files.isDirectory(directory)) {
+                directories.add(directory);
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * Sums a hash of every file it visits, so the order of the walk does not matter.
+     */
+    private static final class FileHasher extends SimpleFileVisitor<Path> {
+        private int files;
+        private long hash;
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            files++;
+            hash += Objects.hash(file.toString(), attributes.size(), attributes.lastModifiedTime());
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+            // Broken links and link loops are skipped.
+            return FileVisitResult.CONTINUE;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package image_char_matching;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A process-wide cache of rendered glyphs and their densities, one per font and pixel resolution.
+ * The printable ASCII range is rendered once, from a single glyph atlas, the first time a cache
+ * is requested. Any other character is rendered with the whole block of 256 characters it
+ * belongs to, in one atlas, the first time one of them is used, so adding a Unicode range
+ * costs one rasterization per block rather than one per character.
+ * The atlas and the blocks are also persisted to files under the user's home directory, and a
+ * later process that finds valid files loads them without loading a font at all. The files are
+ * keyed by a fingerprint of the installed font files, so a font that is updated, replaced or
+ * substituted invalidates them. Each block also records which of its characters the font can
+ * display, saved with its glyphs, so the font is only asked when a block is rendered.
+ * The returned bitmaps are shared and must not be modified.
+ */
+public class GlyphCache {
+
+    /** The first character rendered into the atlas (space). */
+    public static final char ATLAS_FIRST_CHAR = 32;
+    /** The last character rendered into the atlas ('~'). */
+    public static final char ATLAS_LAST_CHAR = 126;
+    private static final String KEY_SEPARATOR = "@";
+    private static final Path DISK_CACHE_DIRECTORY =
+            Paths.get(System.getProperty("user.home"), ".ascii_art", "glyphs");
+    private static final String DISK_CACHE_SUFFIX = ".bin";
+    private static final String BLOCK_FILE_FORMAT = "-u%02x";
+    private static final int BLOCK_BITS = 8;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+    private static final String UNSAFE_FILE_CHARS = "[^A-Za-z0-9_-]";
+    private static final String FILE_NAME_REPLACEMENT = "_";
+    // Anything that can change how a glyph rasterizes goes into the fingerprint.
+    private static final String[] FINGERPRINT_PROPERTIES =
+            {"java.vendor", "java.version", "os.name", "os.version"};
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final Map<String, GlyphCache> CACHES = new ConcurrentHashMap<>();
+
+    private final String fontName;
+    private final int pixelResolution;
+    private final long fingerprint;
+    private final boolean[][][] atlasBitmaps;
+    private final int[] atlasDensities;
+    private final Map<Integer, GlyphBlock> blocks = new ConcurrentHashMap<>();
+
+    private GlyphCache(String fontName, int pixelResolution) {
+        this.fontName = fontName;
+        this.pixelResolution = pixelResolution;
+        this.fingerprint = fingerprint(fontName, pixelResolution);
+        int count = ATLAS_LAST_CHAR - ATLAS_FIRST_CHAR + 1;
+        atlasBitmaps = loadOrRender(diskCacheFile(fontName, pixelResolution, ""), ATLAS_FIRST_CHAR, count).bitmaps;
+        atlasDensities = countDensities(atlasBitmaps);
+    }
+
+    /**
+     * Loads a range of glyphs from its cache file, or renders it as one atlas, asks the font
+     * which of its characters it can display, and saves both.
+     */
+    private GlyphCacheFile.Glyphs loadOrRender(Path file, char first, int count) {
+        GlyphCacheFile.Glyphs glyphs = GlyphCacheFile.load(file, fingerprint, pixelResolution, first, count);
+        if (glyphs == null) {
+            char last = (char) (first + count - 1);
+            glyphs = new GlyphCacheFile.Glyphs(
+                    CharConverter.convertRangeToBoolArrays(first, last, fontName, pixelResolution),
+                    CharConverter.canDisplayRange(first, last, fontName));
+            GlyphCacheFile.save(file, fingerprint, pixelResolution, first, glyphs);
+        }
+        return glyphs;
+    }
+
+    private GlyphBlock loadBlock(int block) {
+        Path file = diskCacheFile(fontName, pixelResolution, String.format(BLOCK_FILE_FORMAT, block));
+        GlyphCacheFile.Glyphs glyphs = loadOrRender(file, (char) (block << BLOCK_BITS), BLOCK_SIZE);
+        return new GlyphBlock(glyphs.bitmaps, countDensities(glyphs.bitmaps), glyphs.displayable);
+    }
+
+    /**
+     * Retrieves the glyph cache of the default font and pixel resolution.
+     *
+     * @return The glyph cache.
+     */
+    public static GlyphCache getInstance() {
+        return getInstance(CharConverter.FONT_NAME, CharConverter.DEFAULT_PIXEL_RESOLUTION);
+    }
+
+    /**
+     * Retrieves the glyph cache of a font and pixel resolution, creating it on first use.
+     *
+     * @param fontName        The name of the font.
+     * @param pixelResolution The size of each glyph in pixels (both width and height).
+     * @return The glyph cache.
+     */
+    public static GlyphCache getInstance(String fontName, int pixelResolution) {
+        return CACHES.computeIfAbsent(fontName + KEY_SEPARATOR + pixelResolution,
+                key -> new GlyphCache(fontName, pixelResolution));
+    }
+
+    /**
+     * Retrieves the rendered bitmap of a character.
+     *
+     * @param c The character.
+     * @return The shared bitmap of the character.
+     */
+    public boolean[][] getBitmap(char c) {
+        if (isInAtlas(c)) {
+            return atlasBitmaps[c - ATLAS_FIRST_CHAR];
+        }
+        return block(c).bitmaps[c & BLOCK_MASK];
+    }
+
+    /**
+     * Retrieves the density of a character, the number of set pixels in its bitmap.
+     *
+     * @param c The character.
+     * @return The density of the character.
+     */
+    public int getDensity(char c) {
+        if (isInAtlas(c)) {
+            return atlasDensities[c - ATLAS_FIRST_CHAR];
+        }
+        return block(c).densities[c & BLOCK_MASK];
+    }
+
+    /**
+     * Checks whether the font has a glyph for a character, rather than drawing a missing-glyph
+     * box or nothing at all. Printable ASCII is displayed by every font the JDK resolves to,
+     * since its fallbacks cover it.
+     *
+     * @param c The character.
+     * @return true if the font, or one of its fallbacks, can display the character.
+     */
+    public boolean canDisplay(char c) {
+        if (isInAtlas(c)) {
+            return true;
+        }
+        return block(c).displayable[c & BLOCK_MASK];
+    }
+
+    /**
+     * Renders, or loads from disk, every glyph of a range of characters that is not cached
+     * yet, a whole block at a time.
+     *
+     * @param first The first character of the range.
+     * @param last  The last character of the range, inclusive.
+     */
+    public void prefetch(char first, char last) {
+        for (int block = first >>> BLOCK_BITS; block <= last >>> BLOCK_BITS; block++) {
+            int from = Math.max(first, block << BLOCK_BITS);
+            int to = Math.min(last, (block << BLOCK_BITS) + BLOCK_MASK);
+            // Characters of the atlas never need their block.
+            if (from < ATLAS_FIRST_CHAR || to > ATLAS_LAST_CHAR) {
+                blocks.computeIfAbsent(block, this::loadBlock);
+            }
+        }
+    }
+
+    private GlyphBlock block(char c) {
+        return blocks.computeIfAbsent(c >>> BLOCK_BITS, this::loadBlock);
+    }
+
+    /**
+     * Retrieves the size of each glyph in pixels.
+     *
+     * @return The pixel resolution of the glyphs.
+     */
+    public int getPixelResolution() {
+        return pixelResolution;
+    }
+
+    private static Path diskCacheFile(String fontName, int pixelResolution, String range) {
+        return DISK_CACHE_DIRECTORY.resolve(fontName.replaceAll(UNSAFE_FILE_CHARS, FILE_NAME_REPLACEMENT) +
+                KEY_SEPARATOR + pixelResolution + range + DISK_CACHE_SUFFIX);
+    }
+
+    /**
+     * Computes a 64-bit FNV-1a hash of the font, the resolution, the installed font files and
+     * the runtime that renders them.
+     */
+    private static long fingerprint(String fontName, int pixelResolution) {
+        StringBuilder source = new StringBuilder(fontName).append(KEY_SEPARATOR).append(pixelResolution)
+                .append(KEY_SEPARATOR).append(FontFiles.describe());
+        for (String property : FINGERPRINT_PROPERTIES) {
+            source.append(KEY_SEPARATOR).append(System.getProperty(property));
+        }
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < source.length(); i++) {
+            hash = (hash ^ source.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static boolean isInAtlas(char c) {
+        return ATLAS_FIRST_CHAR <= c && c <= ATLAS_LAST_CHAR;
+    }
+
+    private static int[] countDensities(boolean[][][] bitmaps) {
+        int[] densities = new int[bitmaps.length];
+        for (int i = 0; i < bitmaps.length; i++) {
+            densities[i] = countDensity(bitmaps[i]);
+        }
+        return densities;
+    }
+
+    private static int countDensity(boolean[][] matrix) {
+        int density = 0;
+        for (boolean[] pixelsLine : matrix) {
+            for (boolean pixel : pixelsLine) {
+                if (pixel) {
+                    density++;
+                }
+            }
+        }
+        return density;
+    }
+
+    /**
+     * The glyphs of one block of 256 characters, their densities, and whether the font can
+     * display them.
+     */
+    private static final class GlyphBlock {
+        private final boolean[][][] bitmaps;
+        private final int[] densities;
+        private final boolean[] displayable;
+
+        GlyphBlock(boolean[][][] bitmaps, int[] densities, boolean[] displayable) {
+            this.bitmaps = bitmaps;
+            this.densities = densities;
+            this.displayable = displayable;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package image_char_matching;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the on-disk form of a glyph atlas, so that a new process can skip
+ * font initialization and rasterization entirely.
+ * The file holds a header (magic, version, fingerprint, pixel resolution, first char and
+ * glyph count), then every glyph bitmap packed one bit per pixel, then one bit per glyph
+ * telling whether the font can display it, then a CRC32 of all that.
+ * A file whose header or checksum does not match is treated as a miss.
+ */
+class GlyphCacheFile {
+
+    private static final int MAGIC = 0x41534746; // "ASGF"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = Integer.BYTES * 5 + Long.BYTES;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private GlyphCacheFile() {
+    }
+
+    /**
+     * The glyphs of a range of characters, and whether the font can display each of them.
+     */
+    static final class Glyphs {
+        final boolean[][][] bitmaps;
+        final boolean[] displayable;
+
+        Glyphs(boolean[][][] bitmaps, boolean[] displayable) {
+            this.bitmaps = bitmaps;
+            this.displayable = displayable;
+        }
+    }
+
+    /**
+     * Loads a glyph atlas from a cache file.
+     *
+     * @param file            The cache file.
+     * @param fingerprint     The fingerprint the file must have been written with.
+     * @param pixelResolution The size of each glyph in pixels.
+     * @param first           The first character of the atlas.
+     * @param count           The number of glyphs in the atlas.
+     * @return The glyphs, or null if the file is missing, stale or corrupt.
+     */
+    static Glyphs load(Path file, long fingerprint, int pixelResolution, char first, int count) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        int glyphBytes = glyphBytes(pixelResolution);
+        long expectedSize = HEADER_BYTES + (long) glyphBytes * count + maskBytes(count) + Long.BYTES;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() != expectedSize) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedSize);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != fingerprint ||
+                    buffer.getInt() != pixelResolution || buffer.getInt() != first ||
+                    buffer.getInt() != count) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().position(0).limit((int) expectedSize - Long.BYTES));
+            if (buffer.getLong((int) expectedSize - Long.BYTES) != crc.getValue()) {
+                return null;
+            }
+            boolean[][][] bitmaps = new boolean[count][pixelResolution][pixelResolution];
+            for (int i = 0; i < count; i++) {
+                int base = HEADER_BYTES + i * glyphBytes;
+                for (int bit = 0; bit < pixelResolution * pixelResolution; bit++) {
+                    bitmaps[i][bit / pixelResolution][bit % pixelResolution] =
+                            (buffer.get(base + (bit >>> 3)) & (1 << (bit & 7))) != 0;
+                }
+            }
+            int mask = HEADER_BYTES + count * glyphBytes;
+            boolean[] displayable = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                displayable[i] = (buffer.get(mask + (i >>> 3)) & (1 << (i & 7))) != 0;
+            }
+            return new Glyphs(bitmaps, displayable);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves a glyph atlas to a cache file. The file is written next to its final place
+     * and moved over it, so a concurrent reader never sees a partial file.
+     * Failures are ignored, the cache is only an optimization.
+     *
+     * @param file            The cache file.
+     * @param fingerprint     The fingerprint to write the file with.
+     * @param pixelResolution The size of each glyph in pixels.
+     * @param first           The first character of the atlas.
+     * @param glyphs          The glyphs.
+     */
+    static void save(Path file, long fingerprint, int pixelResolution, char first, Glyphs glyphs) {
+        boolean[][][] bitmaps = glyphs.bitmaps;
+        int glyphBytes = glyphBytes(pixelResolution);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + glyphBytes * bitmaps.length +
+                maskBytes(bitmaps.length) + Long.BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(fingerprint).putInt(pixelResolution)
+                .putInt(first).putInt(bitmaps.length);
+        for (boolean[][] bitmap : bitmaps) {
+            byte[] packed = new byte[glyphBytes];
+            for (int bit = 0; bit < pixelResolution * pixelResolution; bit++) {
+                if (bitmap[bit / pixelResolution][bit % pixelResolution]) {
+                    packed[bit >>> 3] |= (byte) (1 << (bit & 7));
+                }
+            }
+            buffer.put(packed);
+        }
+        byte[] mask = new byte[maskBytes(bitmaps.length)];
+        for (int i = 0; i < bitmaps.length; i++) {
+            if (glyphs.displayable[i]) {
+                mask[i >>> 3] |= (byte) (1 << (i & 7));
+            }
+        }
+        buffer.put(mask);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        Path temp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), TEMP_SUFFIX);
+            Files.write(temp, buffer.array());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // Best effort, the next process will simply render the glyphs again.
+            deleteQuietly(temp);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Nothing more to do, the temporary file is harmless.
+        }
+    }
+
+    private static int glyphBytes(int pixelResolution) {
+        return (pixelResolution * pixelResolution + 7) / 8;
+    }
+
+    private static int maskBytes(int count) {
+        return (count + 7) / 8;
+    }
+}
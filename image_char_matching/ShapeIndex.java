@@ -0,0 +1,281 @@
+package image_char_matching;
+
+import java.util.Arrays;
+
+/**
+ * An immutable index for structural matching: every glyph is packed into a 16x16 bitboard of
+ * four longs, one bit per unpainted (bright) pixel, row after row, as CharConverter marks the
+ * pixels where nothing is drawn. This is the layout of ImageUtils.forEachTileShape, whose bits
+ * likewise mark bright cells, so comparing a glyph with a tile is four XORs and four
+ * Long.bitCount calls. A tile is matched to the glyph of least Hamming distance
+ * among the glyphs whose normalized brightness lies near the tile's brightness, so the shape
+ * only decides between glyphs that would not change the tone of the tile.
+ * To keep lookups fast however large the charset, glyphs are indexed on two levels: by
+ * brightness, and by a quadrant signature (which quadrants are denser than the glyph as a whole)
+ * with each signature sorted by brightness again. A tile is compared with at most
+ * MAX_CANDIDATES glyphs nearest its brightness overall, and as many nearest its brightness among
+ * the glyphs of its own signature, found by binary search, so a lookup is logarithmic in the
+ * size of the charset. Charsets small enough for the brightness window to hold fewer glyphs
+ * than that are searched exhaustively within the window.
+ * Lookups allocate nothing, and being immutable, an index can be shared freely between threads.
+ */
+public final class ShapeIndex {
+
+    /** The number of cells per side of a bitboard. */
+    public static final int SIDE = 16;
+    /** The number of longs in a bitboard. */
+    public static final int WORDS = SIDE * SIDE / Long.SIZE;
+    // Glyphs this close in brightness to a tile are candidates for it.
+    private static final double BRIGHTNESS_WINDOW = 0.125;
+    // A tile always has at least this many candidates, if the charset has them.
+    private static final int MIN_CANDIDATES = 4;
+    // A tile is compared with at most this many glyphs from each level of the index.
+    private static final int MAX_CANDIDATES = 64;
+    private static final int QUADRANTS = 4;
+    private static final int SIGNATURES = 1 << QUADRANTS;
+    // The left and right halves of the four 16-cell rows of a word.
+    private static final long LEFT_HALVES = 0x00FF00FF00FF00FFL;
+    private static final long RIGHT_HALVES = 0xFF00FF00FF00FF00L;
+    private static final char EMPTY_INDEX_CHAR = '0';
+    private static final long FULL_WORD = -1L;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final char[] chars;
+    private final double[] brightnesses;
+    private final long[] bitboards;
+    // Positions of the glyphs grouped by signature, each group sorted by brightness.
+    private final int[] signatureOrder;
+    private final double[] signatureBrightnesses;
+    private final int[] signatureStarts;
+
+    /**
+     * Builds an index over the given characters.
+     *
+     * @param chars        The characters to index.
+     * @param brightnesses The normalized brightness of each character, at the same position.
+     * @param count        The number of characters to read from the arrays.
+     * @param glyphs       The glyph cache to read the bitmaps from.
+     */
+    ShapeIndex(char[] chars, double[] brightnesses, int count, GlyphCache glyphs) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> brightnesses[a] != brightnesses[b] ?
+                Double.compare(brightnesses[a], brightnesses[b]) : Character.compare(chars[a], chars[b]));
+        this.chars = new char[count];
+        this.brightnesses = new double[count];
+        this.bitboards = new long[count * WORDS];
+        for (int i = 0; i < count; i++) {
+            this.chars[i] = chars[order[i]];
+            this.brightnesses[i] = brightnesses[order[i]];
+            pack(glyphs.getBitmap(this.chars[i]), bitboards, i * WORDS);
+        }
+
+        // A counting sort by signature keeps each group in brightness order.
+        int[] signatures = new int[count];
+        signatureStarts = new int[SIGNATURES + 1];
+        for (int i = 0; i < count; i++) {
+            int offset = i * WORDS;
+            signatures[i] = signature(bitboards[offset], bitboards[offset + 1], bitboards[offset + 2],
+                    bitboards[offset + 3]);
+            signatureStarts[signatures[i] + 1]++;
+        }
+        for (int k = 0; k < SIGNATURES; k++) {
+            signatureStarts[k + 1] += signatureStarts[k];
+        }
+        signatureOrder = new int[count];
+        signatureBrightnesses = new double[count];
+        int[] next = Arrays.copyOf(signatureStarts, SIGNATURES);
+        for (int i = 0; i < count; i++) {
+            int position = next[signatures[i]]++;
+            signatureOrder[position] = i;
+            signatureBrightnesses[position] = this.brightnesses[i];
+        }
+    }
+
+    /**
+     * Computes the quadrant signature of a bitboard: one bit per quadrant (top left, top right,
+     * bottom left, bottom right) set when the quadrant holds at least a quarter of the set bits.
+     */
+    private static int signature(long word0, long word1, long word2, long word3) {
+        int topLeft = Long.bitCount(word0 & LEFT_HALVES) + Long.bitCount(word1 & LEFT_HALVES);
+        int topRight = Long.bitCount(word0 & RIGHT_HALVES) + Long.bitCount(word1 & RIGHT_HALVES);
+        int bottomLeft = Long.bitCount(word2 & LEFT_HALVES) + Long.bitCount(word3 & LEFT_HALVES);
+        int bottomRight = Long.bitCount(word2 & RIGHT_HALVES) + Long.bitCount(word3 & RIGHT_HALVES);
+        int total = topLeft + topRight + bottomLeft + bottomRight;
+        return (topLeft * QUADRANTS >= total ? 1 : 0) | (topRight * QUADRANTS >= total ? 2 : 0) |
+                (bottomLeft * QUADRANTS >= total ? 4 : 0) | (bottomRight * QUADRANTS >= total ? 8 : 0);
+    }
+
+    /**
+     * Packs a square bitmap into a bitboard, resampling it to SIDE x SIDE if needed.
+     */
+    private static void pack(boolean[][] bitmap, long[] bitboards, int offset) {
+        int size = bitmap.length;
+        for (int y = 0; y < SIDE; y++) {
+            boolean[] row = bitmap[y * size / SIDE];
+            for (int x = 0; x < SIDE; x++) {
+                if (row[x * size / SIDE]) {
+                    int bit = y * SIDE + x;
+                    bitboards[offset + bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches a tile to the candidate glyph of least Hamming distance. Ties go to the glyph
+     * of closest brightness, then to the lowest char code. A tile with no structure at all
+     * (every bit equal) is matched by brightness alone.
+     *
+     * @param brightness The brightness of the tile.
+     * @param word0      The first word of the tile's bitboard.
+     * @param word1      The second word of the tile's bitboard.
+     * @param word2      The third word of the tile's bitboard.
+     * @param word3      The fourth word of the tile's bitboard.
+     * @return The matched character.
+     */
+    public char match(double brightness, long word0, long word1, long word2, long word3) {
+        if (chars.length == 0) {
+            return EMPTY_INDEX_CHAR;
+        }
+        int nearest = nearest(brightness);
+        if ((word0 | word1 | word2 | word3) == 0 || (word0 & word1 & word2 & word3) == FULL_WORD) {
+            return chars[nearest];
+        }
+
+        // The first level: the glyphs nearest the tile's brightness, within the window.
+        int from = nearest;
+        int to = nearest + 1;
+        while (to - from < MAX_CANDIDATES && (from > 0 || to < chars.length)) {
+            boolean takeBelow = to == chars.length || (from > 0 &&
+                    brightness - brightnesses[from - 1] <= brightnesses[to] - brightness);
+            double diff = takeBelow ? brightness - brightnesses[from - 1] : brightnesses[to] - brightness;
+            if (diff > BRIGHTNESS_WINDOW && to - from >= MIN_CANDIDATES) {
+                break;
+            }
+            if (takeBelow) {
+                from--;
+            } else {
+                to++;
+            }
+        }
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        double bestDiff = Double.POSITIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            int distance = distance(i, word0, word1, word2, word3);
+            double diff = Math.abs(brightnesses[i] - brightness);
+            if (isBetter(i, distance, diff, best, bestDistance, bestDiff)) {
+                best = i;
+                bestDistance = distance;
+                bestDiff = diff;
+            }
+        }
+        if (to - from < MAX_CANDIDATES) {
+            // The window held every glyph of similar brightness, the second level adds nothing.
+            return chars[best];
+        }
+
+        // The second level: the glyphs of the tile's signature nearest its brightness.
+        int signature = signature(word0, word1, word2, word3);
+        int groupStart = signatureStarts[signature];
+        int groupEnd = signatureStarts[signature + 1];
+        int insertion = Arrays.binarySearch(signatureBrightnesses, groupStart, groupEnd, brightness);
+        int low = insertion >= 0 ? insertion : -insertion - 1;
+        int high = low;
+        for (int taken = 0; taken < MAX_CANDIDATES && (low > groupStart || high < groupEnd); taken++) {
+            int position;
+            if (high == groupEnd || (low > groupStart &&
+                    brightness - signatureBrightnesses[low - 1] <= signatureBrightnesses[high] - brightness)) {
+                position = --low;
+            } else {
+                position = high++;
+            }
+            double diff = Math.abs(signatureBrightnesses[position] - brightness);
+            if (diff > BRIGHTNESS_WINDOW) {
+                break;
+            }
+            int i = signatureOrder[position];
+            int distance = distance(i, word0, word1, word2, word3);
+            if (isBetter(i, distance, diff, best, bestDistance, bestDiff)) {
+                best = i;
+                bestDistance = distance;
+                bestDiff = diff;
+            }
+        }
+        return chars[best];
+    }
+
+    /**
+     * Computes the Hamming distance between a glyph and a tile.
+     */
+    private int distance(int glyph, long word0, long word1, long word2, long word3) {
+        int offset = glyph * WORDS;
+        return Long.bitCount(word0 ^ bitboards[offset]) + Long.bitCount(word1 ^ bitboards[offset + 1]) +
+                Long.bitCount(word2 ^ bitboards[offset + 2]) + Long.bitCount(word3 ^ bitboards[offset + 3]);
+    }
+
+    /**
+     * Checks whether a glyph is a better match than the best so far: a smaller distance, then
+     * a closer brightness, then a lower char code.
+     */
+    private boolean isBetter(int glyph, int distance, double diff, int best, int bestDistance, double bestDiff) {
+        return best < 0 || distance < bestDistance || (distance == bestDistance &&
+                (diff < bestDiff || (diff == bestDiff && chars[glyph] < chars[best])));
+    }
+
+    /**
+     * Finds the position of the closest brightness, the lowest char code among equals.
+     */
+    private int nearest(double brightness) {
+        int insertion = Arrays.binarySearch(brightnesses, brightness);
+        int above = insertion >= 0 ? insertion : -insertion - 1;
+        // Step back to the first of equal brightnesses, which holds the lowest char code.
+        while (above > 0 && brightnesses[above - 1] == brightness) {
+            above--;
+        }
+        if (above == chars.length) {
+            return above - 1;
+        }
+        if (above == 0 || brightnesses[above] == brightness) {
+            return above;
+        }
+        int below = above - 1;
+        while (below > 0 && brightnesses[below - 1] == brightnesses[below]) {
+            below--;
+        }
+        double aboveDiff = brightnesses[above] - brightness;
+        double belowDiff = brightness - brightnesses[below];
+        return aboveDiff < belowDiff || (aboveDiff == belowDiff && chars[above] < chars[below]) ?
+                above : below;
+    }
+
+    /**
+     * Retrieves the number of glyphs in the index.
+     *
+     * @return The number of glyphs.
+     */
+    public int size() {
+        return chars.length;
+    }
+
+    /**
+     * Computes a fingerprint of the index, over its brightnesses, characters and bitboards.
+     *
+     * @return A 64-bit hash of the index.
+     */
+    public long fingerprint() {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < chars.length; i++) {
+            hash = (hash ^ Double.doubleToLongBits(brightnesses[i])) * FNV_PRIME;
+            hash = (hash ^ chars[i]) * FNV_PRIME;
+            for (int w = 0; w < WORDS; w++) {
+                hash = (hash ^ bitboards[i * WORDS + w]) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+}
@@ -1,18 +1,20 @@
 package image_char_matching;
 
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * The SubImgCharMatcher class matches characters based on image brightness.
+ * The character set is copy-on-write: every edit publishes a new immutable state, so lookups
+ * and snapshots never lock and are never disturbed by a concurrent edit. Lookups go through an
+ * immutable BrightnessIndex, built once per state on its first use.
  */
 public class SubImgCharMatcher {
 
-    private static final char INITIAL_CHAR = '0';
     // Fields
-    private HashMap<Character, Double[]> charHashMap;
-    private double normMinVal = Double.POSITIVE_INFINITY;
-    private double normMaxVal = Double.NEGATIVE_INFINITY;
+    private volatile CharsetState state;
 
     /**
      * Constructs a SubImgCharMatcher object with the given character set.
@@ -20,11 +22,11 @@ public class SubImgCharMatcher {
      * @param charset The collection of characters to initialize the matcher.
      */
     public SubImgCharMatcher(char[] charset) {
-        charHashMap = new HashMap<>();
+        Map<Character, Double> densities = new HashMap<>();
         for (char c : charset) {
-            addChar(c);
+            densities.put(c, returnBrightness(c));
         }
-        getMinAndMax(charHashMap.keySet());
+        state = new CharsetState(densities);
     }
 
     /**
@@ -34,22 +36,27 @@ public class SubImgCharMatcher {
      * @return The character closest to the given brightness value.
      */
     public char getCharByImageBrightness(double brightness) {
-        char returnChar = INITIAL_CHAR; // Initialize with default value
-        double mostCloseBrightness = Double.POSITIVE_INFINITY;
-        for (char currentChar : charHashMap.keySet()) {
-            double tempDiff = Math.abs(charHashMap.get(currentChar)[0] - brightness);
-
-            if (tempDiff < mostCloseBrightness) {
-                mostCloseBrightness = tempDiff;
-                returnChar = currentChar;
-            } else if (tempDiff == mostCloseBrightness) {
-                if ((int) currentChar < (int) returnChar) {
-                    mostCloseBrightness = tempDiff;
-                    returnChar = currentChar;
-                }
-            }
-        }
-        return returnChar;
+        return state.getIndex().lookup(brightness);
+    }
+
+    /**
+     * Takes an immutable snapshot of the current character set, ready for lookups.
+     * Later edits of this matcher do not affect the snapshot.
+     *
+     * @return The brightness index of the current character set.
+     */
+    public BrightnessIndex snapshot() {
+        return state.getIndex();
+    }
+
+    /**
+     * Takes an immutable snapshot of the current character set for structural matching.
+     * Later edits of this matcher do not affect the snapshot.
+     *
+     * @return The shape index of the current character set.
+     */
+    public ShapeIndex shapeSnapshot() {
+        return state.getShapeIndex();
     }
 
     /**
@@ -57,18 +64,13 @@ public class SubImgCharMatcher {
      *
      * @param c The character to add.
      */
-    public void addChar(char c) {
-        double brightness = returnBrightness(c);
-        double normalizedBrightness = normalize(brightness);
-        if (brightness > normMaxVal) {
-            normMaxVal = brightness;
-            normalizedValuesUpdate();
-        } else if (brightness < normMinVal) {
-            normMinVal = brightness;
-            normalizedValuesUpdate();
+    public synchronized void addChar(char c) {
+        if (state.densities.containsKey(c)) {
+            return;
         }
-        Double[] brightnessArray = {normalizedBrightness, brightness};
-        charHashMap.put(c, brightnessArray);
+        Map<Character, Double> densities = new HashMap<>(state.densities);
+        densities.put(c, returnBrightness(c));
+        state = new CharsetState(densities);
     }
 
     /**
@@ -76,93 +78,169 @@ public class SubImgCharMatcher {
      *
      * @param c The character to remove.
      */
-    public void removeChar(char c) {
-        double brightness = returnBrightness(c);
-        if (charHashMap.containsKey(c)){
-            charHashMap.remove(c);
-            if (brightness == normMinVal || brightness == normMaxVal) {
-                updateMinAndMax(charHashMap.keySet());
-            }
+    public synchronized void removeChar(char c) {
+        if (!state.densities.containsKey(c)) {
+            return;
         }
+        Map<Character, Double> densities = new HashMap<>(state.densities);
+        densities.remove(c);
+        state = new CharsetState(densities);
     }
 
     /**
-     * Calculates the brightness of a character.
+     * Adds a range of characters at once, publishing a single new state. Glyphs are rendered
+     * a block at a time, and characters with no glyph to draw (unassigned code points,
+     * controls, surrogates, and characters the font has no glyph for) are skipped.
      *
-     * @param c The character.
-     * @return The brightness value of the character.
+     * @param first The first character of the range.
+     * @param last  The last character of the range, inclusive.
      */
-    private double returnBrightness(char c) {
-        boolean[][] matrix = CharConverter.convertToBoolArray(c);
-        int brightness = 0;
-        for (boolean[] pixelsLine : matrix) {
-            for (boolean pixel : pixelsLine) {
-                if (pixel) {
-                    brightness ++;
-                }
+    public synchronized void addChars(char first, char last) {
+        GlyphCache glyphs = GlyphCache.getInstance();
+        glyphs.prefetch(first, last);
+        Map<Character, Double> densities = new HashMap<>(state.densities);
+        for (int c = first; c <= last; c++) {
+            if (isDrawable(glyphs, (char) c)) {
+                densities.putIfAbsent((char) c, (double) glyphs.getDensity((char) c));
             }
         }
-        return brightness;
+        if (densities.size() != state.densities.size()) {
+            state = new CharsetState(densities);
+        }
     }
 
     /**
-     * Normalizes a value between normMinVal and normMaxVal.
+     * Removes a range of characters at once, publishing a single new state.
      *
-     * @param value The value to normalize.
-     * @return The normalized value.
+     * @param first The first character of the range.
+     * @param last  The last character of the range, inclusive.
      */
-    private double normalize(double value) {
-        return (value - normMinVal) / (normMaxVal - normMinVal);
+    public synchronized void removeChars(char first, char last) {
+        Map<Character, Double> densities = new HashMap<>(state.densities);
+        densities.keySet().removeIf(c -> first <= c && c <= last);
+        if (densities.size() != state.densities.size()) {
+            state = new CharsetState(densities);
+        }
     }
 
     /**
-     * Finds the minimum and maximum brightness values from the character set.
+     * Checks whether a character has a glyph worth matching against. An assigned character
+     * still renders as a missing-glyph box when the font cannot display it.
      *
-     * @param charset The character set.
+     * @param glyphs The glyph cache of the font the characters are rendered with.
+     * @param c      The character.
+     * @return true if the character is assigned, is neither a control nor a surrogate, and the
+     * font can display it.
      */
-    private void getMinAndMax(Collection<Character> charset) {
-        for (char c : charset) {
-            double brightness = returnBrightness(c);
-            if (brightness > normMaxVal) {
-                normMaxVal = brightness;
-            }
-            if (brightness < normMinVal) {
-                normMinVal = brightness;
-            }
-        }
+    private static boolean isDrawable(GlyphCache glyphs, char c) {
+        return Character.isDefined(c) && !Character.isISOControl(c) && !Character.isSurrogate(c) &&
+                glyphs.canDisplay(c);
     }
 
     /**
-     * Updates the minimum and maximum brightness values from the character set.
+     * Retrieves the characters of the character set, in ascending order.
      *
-     * @param charset The character set.
+     * @return The sorted characters.
      */
-    private void updateMinAndMax(Collection<Character> charset) {
-        for (char c : charset) {
-            double brightness = returnBrightness(c);
-            if (brightness > normMaxVal) {
-                normMaxVal = brightness;
-            } else if (brightness < normMinVal) {
-                normMinVal = brightness;
-            }
+    public char[] getCharset() {
+        Map<Character, Double> densities = state.densities;
+        char[] chars = new char[densities.size()];
+        int i = 0;
+        for (char c : densities.keySet()) {
+            chars[i++] = c;
         }
+        Arrays.sort(chars);
+        return chars;
     }
 
     /**
-     * Updates the normalized brightness values for characters in the map.
+     * Checks whether the character set is empty.
+     *
+     * @return true if there is no character to match with.
      */
-    private void normalizedValuesUpdate() {
-        for (Double[] charBrightnessArray : charHashMap.values()) {
-            charBrightnessArray[0] = normalize(charBrightnessArray[1]);
-        }
+    public boolean isEmpty() {
+        return state.densities.isEmpty();
     }
 
     /**
-     * Retrieves the character hash map.
+     * Calculates the brightness of a character.
      *
-     * @return The character hash map.
+     * @param c The character.
+     * @return The brightness value of the character.
      */
-    public HashMap<Character, Double[]> getCharHashMap() {
-        return charHashMap;
+    private double returnBrightness(char c) {
+        return GlyphCache.getInstance().getDensity(c);
+    }
+
+    /**
+     * An immutable character set: the raw brightness of each character, the range used to
+     * normalize them, and the lookup indexes, built on first use. Building an index twice in a
+     * race is harmless, both threads build equal indexes.
+     */
+    private static final class CharsetState {
+        private final Map<Character, Double> densities;
+        private final double normMinVal;
+        private final double normMaxVal;
+        private BrightnessIndex index;
+        private ShapeIndex shapeIndex;
+
+        CharsetState(Map<Character, Double> densities) {
+            this.densities = Collections.unmodifiableMap(densities);
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (double brightness : densities.values()) {
+                min = Math.min(min, brightness);
+                max = Math.max(max, brightness);
+            }
+            normMinVal = min;
+            normMaxVal = max;
+        }
+
+        BrightnessIndex getIndex() {
+            BrightnessIndex built = index;
+            if (built == null) {
+                char[] chars = new char[densities.size()];
+                double[] brightnesses = new double[densities.size()];
+                int i = 0;
+                for (Map.Entry<Character, Double> entry : densities.entrySet()) {
+                    chars[i] = entry.getKey();
+                    brightnesses[i] = normalize(entry.getValue());
+                    i++;
+                }
+                built = new BrightnessIndex(chars, brightnesses, i);
+                index = built;
+            }
+            return built;
+        }
+
+        ShapeIndex getShapeIndex() {
+            ShapeIndex built = shapeIndex;
+            if (built == null) {
+                char[] chars = new char[densities.size()];
+                double[] brightnesses = new double[densities.size()];
+                int i = 0;
+                for (Map.Entry<Character, Double> entry : densities.entrySet()) {
+                    chars[i] = entry.getKey();
+                    brightnesses[i] = normalize(entry.getValue());
+                    i++;
+                }
+                built = new ShapeIndex(chars, brightnesses, i, GlyphCache.getInstance());
+                shapeIndex = built;
+            }
+            return built;
+        }
+
+        /**
+         * Normalizes a value between normMinVal and normMaxVal.
+         *
+         * @param value The value to normalize.
+         * @return The normalized value.
+         */
+        private double normalize(double value) {
+            if (normMaxVal <= normMinVal) {
+                return 0; // A single brightness level, every character is equally close
+            }
+            return (value - normMinVal) / (normMaxVal - normMinVal);
+        }
     }
 }
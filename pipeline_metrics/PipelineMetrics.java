@@ -0,0 +1,137 @@
+package pipeline_metrics;
+
+import jdk.jfr.EventType;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The process-wide registry of pipeline stage metrics: wall time, bytes allocated by the
+ * measuring thread, and cells processed, per stage. Stages are also committed as JFR events
+ * whenever a recording enables them. While the registry is disabled and no recording listens,
+ * start returns a shared no-op timer, so instrumented code costs a branch and nothing more.
+ * The registry is enabled with -Dascii_art.metrics=true or setEnabled.
+ */
+public final class PipelineMetrics {
+
+    private static final String ENABLED_PROPERTY = "ascii_art.metrics";
+    private static final double MEDIAN = 0.5;
+    private static final double P99 = 0.99;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double BYTES_PER_KILOBYTE = 1024.0;
+    private static final String HEADER_FORMAT = "%-10s %10s %12s %12s %8s %10s %10s %10s%n";
+    private static final String ROW_FORMAT = "%-10s %10.3f %12s %12d %8d %10.3f %10.3f %10.3f%n";
+    private static final String NEVER_RUN_FORMAT = "%-10s %10s %12s %12s %8d %10s %10s %10s%n";
+    private static final String NOT_AVAILABLE = "-";
+    private static final String DISABLED_MESSAGE = "Metrics are disabled. Enable them with 'stats on'.";
+
+    private static final EventType STAGE_EVENT_TYPE = EventType.getEventType(StageEvent.class);
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = allocationSupported();
+    private static final Map<Stage, StageStats> STATS = new EnumMap<>(Stage.class);
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    static {
+        for (Stage stage : Stage.values()) {
+            STATS.put(stage, new StageStats());
+        }
+    }
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * Starts measuring a stage.
+     *
+     * @param stage The stage.
+     * @return The timer to close when the stage ends.
+     */
+    public static StageTimer start(Stage stage) {
+        boolean withEvent = STAGE_EVENT_TYPE.isEnabled();
+        if (!enabled && !withEvent) {
+            return StageTimer.DISABLED;
+        }
+        return new StageTimer(stage, withEvent);
+    }
+
+    /**
+     * Checks whether the registry collects metrics.
+     *
+     * @return true if metrics are collected.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables collecting metrics. JFR events follow their own recording settings.
+     *
+     * @param enabled true to collect metrics.
+     */
+    public static void setEnabled(boolean enabled) {
+        PipelineMetrics.enabled = enabled;
+    }
+
+    static void record(Stage stage, long wallNanos, long allocatedBytes, long cells) {
+        if (enabled) {
+            STATS.get(stage).record(wallNanos, allocatedBytes, cells);
+        }
+    }
+
+    static long allocatedBytes() {
+        if (!ALLOCATION_SUPPORTED) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    private static boolean allocationSupported() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return false;
+        }
+        if (!threads.isThreadAllocatedMemoryEnabled()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+        return true;
+    }
+
+    /**
+     * Formats the last run of every stage next to its running statistics.
+     *
+     * @return The report, one line per stage.
+     */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        if (!enabled) {
+            sb.append(DISABLED_MESSAGE).append(System.lineSeparator());
+        }
+        sb.append(String.format(HEADER_FORMAT, "stage", "last ms", "last KB", "last cells",
+                "runs", "mean ms", "p50 ms", "p99 ms"));
+        for (Stage stage : Stage.values()) {
+            StageStats stats = STATS.get(stage);
+            long count = stats.getCount();
+            String name = stage.name().toLowerCase();
+            if (count == 0) {
+                sb.append(String.format(NEVER_RUN_FORMAT, name, NOT_AVAILABLE, NOT_AVAILABLE,
+                        NOT_AVAILABLE, count, NOT_AVAILABLE, NOT_AVAILABLE, NOT_AVAILABLE));
+                continue;
+            }
+            long allocated = stats.getLastAllocatedBytes();
+            String kilobytes = allocated < 0 ? NOT_AVAILABLE :
+                    String.format("%.1f", allocated / BYTES_PER_KILOBYTE);
+            sb.append(String.format(ROW_FORMAT, name,
+                    stats.getLastWallNanos() / NANOS_PER_MILLI, kilobytes, stats.getLastCells(), count,
+                    stats.getTotalWallNanos() / NANOS_PER_MILLI / count,
+                    stats.percentileNanos(MEDIAN) / NANOS_PER_MILLI,
+                    stats.percentileNanos(P99) / NANOS_PER_MILLI));
+        }
+        return sb.toString();
+    }
+}
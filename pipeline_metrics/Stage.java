@@ -0,0 +1,19 @@
+package pipeline_metrics;
+
+/**
+ * The stages of the rendering pipeline that are measured.
+ */
+public enum Stage {
+    /** Decoding the image file into pixels. */
+    DECODE,
+    /** Padding the image to power-of-two dimensions. */
+    PAD,
+    /** Dividing the image into sub-images. */
+    TILING,
+    /** Computing the brightness of each tile. */
+    BRIGHTNESS,
+    /** Matching each tile brightness to a character. */
+    MATCHING,
+    /** Writing the ASCII art to its output, including the matching of streamed rows. */
+    OUTPUT
+}
@@ -0,0 +1,33 @@
+package pipeline_metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JFR event committed for every measured pipeline stage. Its duration is the wall time
+ * of the stage.
+ */
+@Name("ascii_art.PipelineStage")
+@Label("Pipeline Stage")
+@Category({"ASCII Art", "Pipeline"})
+@Description("One stage of rendering an image to ASCII art.")
+@StackTrace(false)
+class StageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread that ran the stage, -1 if unsupported.")
+    @DataAmount
+    long allocatedBytes;
+
+    @Label("Cells")
+    @Description("Pixels or tiles the stage processed.")
+    long cells;
+}
@@ -0,0 +1,85 @@
+package pipeline_metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The running statistics of one pipeline stage: its last run, totals, and a histogram of wall
+ * times in power-of-two nanosecond buckets. Updates are lock-free; a report taken during an
+ * update may mix the last run of two threads, which is fine for monitoring.
+ */
+final class StageStats {
+
+    private static final int BUCKETS = Long.SIZE;
+    private static final int COUNT = 0;
+    private static final int WALL_NANOS = 1;
+    private static final int CELLS = 2;
+
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(CELLS + 1);
+    private volatile long lastWallNanos = -1;
+    private volatile long lastAllocatedBytes = -1;
+    private volatile long lastCells;
+
+    void record(long wallNanos, long allocatedBytes, long cells) {
+        lastWallNanos = wallNanos;
+        lastAllocatedBytes = allocatedBytes;
+        lastCells = cells;
+        totals.incrementAndGet(COUNT);
+        totals.addAndGet(WALL_NANOS, wallNanos);
+        totals.addAndGet(CELLS, cells);
+        histogram.incrementAndGet(bucketOf(wallNanos));
+    }
+
+    private static int bucketOf(long nanos) {
+        return nanos <= 0 ? 0 : BUCKETS - 1 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    long getCount() {
+        return totals.get(COUNT);
+    }
+
+    long getTotalWallNanos() {
+        return totals.get(WALL_NANOS);
+    }
+
+    long getTotalCells() {
+        return totals.get(CELLS);
+    }
+
+    long getLastWallNanos() {
+        return lastWallNanos;
+    }
+
+    long getLastAllocatedBytes() {
+        return lastAllocatedBytes;
+    }
+
+    long getLastCells() {
+        return lastCells;
+    }
+
+    /**
+     * Estimates a percentile of the wall time from the histogram.
+     *
+     * @param fraction The percentile, between 0 and 1.
+     * @return The upper bound of the bucket holding the percentile, in nanoseconds, or 0 if
+     * the stage never ran.
+     */
+    long percentileNanos(double fraction) {
+        long count = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = histogram.get(i);
+            count += snapshot[i];
+        }
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : 2L << i;
+            }
+        }
+        return 0;
+    }
+}
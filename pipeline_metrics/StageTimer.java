@@ -0,0 +1,70 @@
+package pipeline_metrics;
+
+/**
+ * Measures one run of a pipeline stage, from its creation until it is closed, and then
+ * records it in the metrics registry and as a JFR event. Meant for try-with-resources.
+ * Only the thread that opened the timer is counted for allocated bytes; work forked to a
+ * pool is counted in wall time only.
+ */
+public final class StageTimer implements AutoCloseable {
+
+    // Handed out while nothing listens, so a disabled stage costs one branch.
+    static final StageTimer DISABLED = new StageTimer();
+
+    private final Stage stage;
+    private final StageEvent event;
+    private final long startNanos;
+    private final long startBytes;
+    private long cells;
+
+    private StageTimer() {
+        stage = null;
+        event = null;
+        startNanos = 0;
+        startBytes = 0;
+    }
+
+    StageTimer(Stage stage, boolean withEvent) {
+        this.stage = stage;
+        this.event = withEvent ? new StageEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        startBytes = PipelineMetrics.allocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Sets how many pixels or tiles the stage processed.
+     *
+     * @param cells The number of cells.
+     * @return This timer.
+     */
+    public StageTimer cells(long cells) {
+        this.cells = cells;
+        return this;
+    }
+
+    /**
+     * Ends the stage and records it.
+     */
+    @Override
+    public void close() {
+        if (stage == null) {
+            return;
+        }
+        long wallNanos = System.nanoTime() - startNanos;
+        long endBytes = PipelineMetrics.allocatedBytes();
+        long allocated = startBytes < 0 || endBytes < 0 ? -1 : endBytes - startBytes;
+        PipelineMetrics.record(stage, wallNanos, allocated, cells);
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.name();
+                event.allocatedBytes = allocated;
+                event.cells = cells;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package image;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The SIMD luminance reduction, over the preferred integer species of the platform.
+ * This class lives in its own source root, compiled with --add-modules jdk.incubator.vector,
+ * so the rest of the project builds without the incubating module. LuminanceTable loads it by
+ * name, and only once it has found the module, so the class is never loaded without it.
+ * The arithmetic is the same fixed point as the scalar path, so the sums are exactly equal:
+ * the epsilon between the two paths is zero.
+ */
+final class VectorLuminance implements LuminanceTable.RowReducer {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int CHANNEL_MASK = 0xFF;
+
+    /**
+     * Constructs a VectorLuminance. LuminanceTable creates the only instance.
+     */
+    VectorLuminance() {
+    }
+
+    @Override
+    public void accumulateRow(int[] pixels, int offset, int[] columns, int count) {
+        int x = 0;
+        int upper = SPECIES.loopBound(count);
+        for (; x < upper; x += SPECIES.length()) {
+            IntVector argb = IntVector.fromArray(SPECIES, pixels, offset + x);
+            IntVector red = argb.lanewise(VectorOperators.LSHR, RED_SHIFT).and(CHANNEL_MASK);
+            IntVector green = argb.lanewise(VectorOperators.LSHR, GREEN_SHIFT).and(CHANNEL_MASK);
+            IntVector blue = argb.and(CHANNEL_MASK);
+            IntVector.fromArray(SPECIES, columns, x)
+                    .add(red.mul(LuminanceTable.RED_WEIGHT))
+                    .add(green.mul(LuminanceTable.GREEN_WEIGHT))
+                    .add(blue.mul(LuminanceTable.BLUE_WEIGHT))
+                    .intoArray(columns, x);
+        }
+        for (; x < count; x++) {
+            columns[x] += (int) LuminanceTable.luminance(pixels[offset + x]);
+        }
+    }
+}